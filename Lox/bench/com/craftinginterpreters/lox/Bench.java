@@ -0,0 +1,68 @@
+package com.craftinginterpreters.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+// A tiny timing harness for the benchmarks in this directory. Each one
+// is a main() that warms the JIT up before measuring, so numbers are
+// steady-state unless a benchmark says otherwise.
+final class Bench {
+  private Bench() {}
+
+  static List<Stmt> parse(String source) {
+    ErrorReporter reporter =
+        new ErrorReporter(new OutputStreamWriter(System.err));
+    List<Token> tokens = new Scanner(source, reporter).scanTokens();
+    List<Stmt> statements = new Parser(tokens, reporter).parse();
+    if (reporter.hadError) {
+      throw new IllegalArgumentException("Benchmark script has errors.");
+    }
+    return statements;
+  }
+
+  // Reruns benchmark's main() with "--run" in a fresh JVM for each value
+  // of property, so the variants can't share JIT profiles. Returns true
+  // if this JVM is already one of those children and should measure.
+  static boolean forkPerValue(Class<?> benchmark, String[] args,
+                              String property, String... values)
+      throws IOException, InterruptedException {
+    if (args.length == 1 && args[0].equals("--run")) return true;
+
+    String java = System.getProperty("java.home") + File.separator +
+        "bin" + File.separator + "java";
+    for (String value : values) {
+      System.out.println("== " + property + "=" + value);
+      Process process = new ProcessBuilder(java,
+          "-cp", System.getProperty("java.class.path"),
+          "-D" + property + "=" + value,
+          benchmark.getName(), "--run")
+          .inheritIO()
+          .start();
+      if (process.waitFor() != 0) System.exit(1);
+    }
+    return false;
+  }
+
+  // Runs task warmup times untimed, then runs times timed, and prints
+  // the best and mean run in milliseconds.
+  static void measure(String name, int warmup, int runs, Runnable task) {
+    for (int i = 0; i < warmup; i++) {
+      task.run();
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      task.run();
+      long elapsed = System.nanoTime() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+
+    System.out.printf("%-24s best %9.3f ms   mean %9.3f ms%n",
+        name, best / 1e6, total / 1e6 / runs);
+  }
+}
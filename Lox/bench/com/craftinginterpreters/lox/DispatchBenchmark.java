@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+
+// Compares the Interpreter's tableswitch dispatch on node kinds with the
+// classic accept()/Visitor double dispatch. The dispatch style is a
+// static final flag, so each style runs in its own JVM to keep one from
+// polluting the other's type profile.
+class DispatchBenchmark {
+  private static final String FIB =
+      "fun fib(n) {\n" +
+      "  if (n < 2) return n;\n" +
+      "  return fib(n - 1) + fib(n - 2);\n" +
+      "}\n" +
+      "fib(22);\n";
+
+  private static final String LOOP =
+      "var sum = 0;\n" +
+      "for (var i = 0; i < 200000; i = i + 1) {\n" +
+      "  if (i > 10 and !(i == 20)) sum = sum + i * 2 - 1;\n" +
+      "}\n";
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    if (Bench.forkPerValue(DispatchBenchmark.class, args,
+        "lox.dispatch", "switch", "visitor")) {
+      run();
+    }
+  }
+
+  private static void run() {
+    List<Stmt> fib = Bench.parse(FIB);
+    List<Stmt> loop = Bench.parse(LOOP);
+
+    Bench.measure("fib(22)", 20, 20,
+        () -> new Interpreter().interpret(fib));
+    Bench.measure("loop 200k", 20, 20,
+        () -> new Interpreter().interpret(loop));
+  }
+}
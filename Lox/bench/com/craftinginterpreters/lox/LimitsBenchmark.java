@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+// Measures what ExecutionLimits cost a script that never hits them. Runs
+// each workload with no limits and with generous ones, each in its own
+// JVM.
+class LimitsBenchmark {
+  private static final String FIB =
+      "fun fib(n) {\n" +
+      "  if (n < 2) return n;\n" +
+      "  return fib(n - 1) + fib(n - 2);\n" +
+      "}\n" +
+      "fib(22);\n";
+
+  private static final String LOOP =
+      "var sum = 0;\n" +
+      "for (var i = 0; i < 200000; i = i + 1) sum = sum + i;\n";
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    if (Bench.forkPerValue(LimitsBenchmark.class, args,
+        "lox.bench.limits", "off", "on")) {
+      run("on".equals(System.getProperty("lox.bench.limits")));
+    }
+  }
+
+  private static void run(boolean limited) {
+    ExecutionLimits limits = limited
+        ? new ExecutionLimits(1000000000L, 60000, 10000)
+        : null;
+    List<Stmt> fib = Bench.parse(FIB);
+    List<Stmt> loop = Bench.parse(LOOP);
+
+    Bench.measure("fib(22)", 100, 100, () -> {
+      Interpreter interpreter = new Interpreter(Writer.nullWriter());
+      interpreter.setLimits(limits);
+      interpreter.interpret(fib);
+    });
+    Bench.measure("loop 200k", 100, 100, () -> {
+      Interpreter interpreter = new Interpreter(Writer.nullWriter());
+      interpreter.setLimits(limits);
+      interpreter.interpret(loop);
+    });
+  }
+}
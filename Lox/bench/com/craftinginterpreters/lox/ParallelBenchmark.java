@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+// Measures how parallelMap() and parallelReduce() scale with the number
+// of threads in the common pool. Each pool size runs in its own JVM,
+// since the common pool's size is fixed at startup. Compare against the
+// sequential loop, which doesn't depend on the pool.
+class ParallelBenchmark {
+  private static final String SETUP =
+      "fun fib(n) {\n" +
+      "  if (n < 2) return n;\n" +
+      "  return fib(n - 1) + fib(n - 2);\n" +
+      "}\n" +
+      "fun add(a, b) { return a + b; }\n" +
+      "var inputs = list();\n" +
+      "for (var i = 0; i < 64; i = i + 1) push(inputs, 17);\n";
+
+  private static final String SEQUENTIAL =
+      "var results = list();\n" +
+      "for (var i = 0; i < len(inputs); i = i + 1) {\n" +
+      "  push(results, fib(get(inputs, i)));\n" +
+      "}\n";
+
+  private static final String PARALLEL_MAP =
+      "var results = parallelMap(inputs, fib);\n";
+
+  private static final String PARALLEL_REDUCE =
+      "var total = parallelReduce(parallelMap(inputs, fib), add, 0);\n";
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    if (Bench.forkPerValue(ParallelBenchmark.class, args,
+        "java.util.concurrent.ForkJoinPool.common.parallelism",
+        "1", "2", "4", "8")) {
+      run();
+    }
+  }
+
+  private static void run() {
+    Interpreter interpreter = new Interpreter(Writer.nullWriter());
+    interpreter.interpret(Bench.parse(SETUP));
+    List<Stmt> sequential = Bench.parse(SEQUENTIAL);
+    List<Stmt> parallelMap = Bench.parse(PARALLEL_MAP);
+    List<Stmt> parallelReduce = Bench.parse(PARALLEL_REDUCE);
+
+    Bench.measure("sequential", 10, 20,
+        () -> interpreter.interpret(sequential));
+    Bench.measure("parallelMap", 10, 20,
+        () -> interpreter.interpret(parallelMap));
+    Bench.measure("parallelReduce", 10, 20,
+        () -> interpreter.interpret(parallelReduce));
+  }
+}
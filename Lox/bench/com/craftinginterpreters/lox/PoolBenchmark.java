@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+// Requests per second for tiny scripts when every request builds a fresh
+// LoxRuntime versus borrowing one from a LoxRuntimePool.
+class PoolBenchmark {
+  private static final String SCRIPT =
+      "var greeting = \"hello\";\n" +
+      "fun twice(x) { return x + x; }\n" +
+      "print twice(greeting);\n";
+  private static final int REQUESTS = 200000;
+
+  public static void main(String[] args) {
+    LoxRuntimePool pool = new LoxRuntimePool(1);
+
+    for (int round = 0; round < 5; round++) {
+      double fresh = throughput(() -> {
+        StringWriter out = new StringWriter();
+        LoxRuntime runtime = new LoxRuntime(out, Writer.nullWriter());
+        runtime.run(SCRIPT);
+        runtime.flush();
+      });
+
+      double pooled = throughput(() -> {
+        StringWriter out = new StringWriter();
+        LoxRuntime runtime = pool.acquire(out, Writer.nullWriter());
+        runtime.run(SCRIPT);
+        pool.release(runtime);
+      });
+
+      System.out.printf("round %d   fresh %,10.0f req/s   " +
+          "pooled %,10.0f req/s%n", round, fresh, pooled);
+    }
+  }
+
+  private static double throughput(Runnable request) {
+    long start = System.nanoTime();
+    for (int i = 0; i < REQUESTS; i++) {
+      request.run();
+    }
+    return REQUESTS / ((System.nanoTime() - start) / 1e9);
+  }
+}
@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Measures how long a fresh "java -jar" takes to print the first line of
+// a hello-world script, with and without the class-data archive that
+// "mvn -Pcds package" builds. Unlike the other benchmarks, every run is
+// cold, since startup is what's being measured. Run it from Lox/ after
+// packaging, or pass the jar and archive paths.
+class StartupBenchmark {
+  private static final int WARMUP = 3;
+  private static final int RUNS = 20;
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    Path jar = Paths.get(args.length > 0 ? args[0]
+        : "interpreter/target/lox-1.0-SNAPSHOT.jar");
+    Path archive = Paths.get(args.length > 1 ? args[1]
+        : "interpreter/target/lox.jsa");
+    if (!Files.isRegularFile(jar)) {
+      System.err.println("No jar at " + jar + ". Run mvn package first.");
+      System.exit(1);
+    }
+
+    Path script = Files.createTempFile("hello", ".lox");
+    try {
+      Files.write(script,
+          "print \"Hello, world!\";\n".getBytes(StandardCharsets.UTF_8));
+
+      measure("no CDS", jar, script, "-Xshare:off");
+      measure("JDK archive", jar, script);
+      if (Files.isRegularFile(archive)) {
+        measure("app archive", jar, script,
+            "-XX:SharedArchiveFile=" + archive, "-Xshare:auto");
+      } else {
+        System.out.println("No archive at " + archive +
+            "; run mvn -Pcds package to compare against it.");
+      }
+    } finally {
+      Files.delete(script);
+    }
+  }
+
+  private static void measure(String name, Path jar, Path script,
+                              String... options)
+      throws IOException, InterruptedException {
+    for (int i = 0; i < WARMUP; i++) {
+      timeToFirstPrint(jar, script, options);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < RUNS; i++) {
+      long elapsed = timeToFirstPrint(jar, script, options);
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+
+    System.out.printf("%-24s best %9.3f ms   mean %9.3f ms%n",
+        name, best / 1e6, total / 1e6 / RUNS);
+  }
+
+  // Starts jlox on script and returns the nanoseconds until its first
+  // line of output arrives.
+  private static long timeToFirstPrint(Path jar, Path script,
+                                       String... options)
+      throws IOException, InterruptedException {
+    String java = System.getProperty("java.home") + File.separator +
+        "bin" + File.separator + "java";
+    List<String> command = new ArrayList<>();
+    command.add(java);
+    command.addAll(Arrays.asList(options));
+    command.add("-jar");
+    command.add(jar.toString());
+    command.add(script.toString());
+
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    String line;
+    try (BufferedReader out = new BufferedReader(new InputStreamReader(
+        process.getInputStream(), StandardCharsets.UTF_8))) {
+      line = out.readLine();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    if (process.waitFor() != 0 || line == null) {
+      throw new IllegalStateException("jlox failed on the startup script.");
+    }
+    return elapsed;
+  }
+}
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scanning and parsing a program built from the interpreter benchmarks'
+// scripts.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+  @Param({"1", "100"})
+  public int copies;
+
+  private final ErrorReporter reporter =
+      new ErrorReporter(Writer.nullWriter());
+  private String source;
+  private List<Token> tokens;
+
+  @Setup
+  public void setUp() {
+    source = Scripts.program(copies);
+    tokens = new Scanner(source, reporter).scanTokens();
+    new Parser(tokens, reporter).parse();
+    if (reporter.hadError) {
+      throw new IllegalStateException("Benchmark script has errors.");
+    }
+  }
+
+  @Benchmark
+  public Object scan() {
+    return new Scanner(source, reporter).scanTokens();
+  }
+
+  @Benchmark
+  public Object parse() {
+    return new Parser(tokens, reporter).parse();
+  }
+}
@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Several threads reading and writing variables in one shared scope, as
+// spawned tasks do. "global" is the top-level scope, which keeps its
+// values in concurrent cells once shared. "enclosing" is a block scope,
+// which locks instead, for comparison. Change the thread count with -t.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class GlobalsBenchmark {
+  private static final Token A = name("a");
+  private static final Token B = name("b");
+  private static final Token C = name("c");
+  private static final Token D = name("d");
+
+  @Param({"global", "enclosing"})
+  public String scope;
+
+  private Environment environment;
+
+  @Setup
+  public void setUp() {
+    Environment globals = new Environment();
+    environment = scope.equals("global")
+        ? globals
+        : new Environment(globals);
+    environment.define("a", 1.0);
+    environment.define("b", 2.0);
+    environment.define("c", 3.0);
+    environment.define("d", 4.0);
+    environment.share();
+  }
+
+  private static Token name(String lexeme) {
+    return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+  }
+
+  @Benchmark
+  public double read() {
+    return (double)environment.get(A) + (double)environment.get(B) +
+        (double)environment.get(C) + (double)environment.get(D);
+  }
+
+  @Benchmark
+  public double readAndWrite() {
+    double sum = (double)environment.get(A) + (double)environment.get(B) +
+        (double)environment.get(C);
+    environment.assign(D, sum);
+    return sum;
+  }
+}
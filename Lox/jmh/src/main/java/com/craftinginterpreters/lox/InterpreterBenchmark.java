@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs already-parsed scripts, so only the interpreter is measured. Each
+// run redeclares its globals, so reusing one interpreter is fine.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  private final ErrorReporter reporter =
+      new ErrorReporter(Writer.nullWriter());
+  private Interpreter interpreter;
+  private List<Stmt> variableLookup;
+  private List<Stmt> calls;
+  private List<Stmt> stringConcat;
+  private List<Stmt> fib;
+  private List<Stmt> loop;
+  private List<Stmt> binaryTrees;
+  private List<Stmt> list;
+  private List<Stmt> map;
+  private List<Stmt> buffer;
+
+  @Setup
+  public void setUp() {
+    interpreter = new Interpreter(Writer.nullWriter(),
+        Interpreter.DEFAULT_BUFFER_SIZE, reporter);
+    variableLookup = parse(Scripts.VARIABLE_LOOKUP);
+    calls = parse(Scripts.CALLS);
+    stringConcat = parse(Scripts.STRING_CONCAT);
+    fib = parse(Scripts.FIB);
+    loop = parse(Scripts.LOOP);
+    binaryTrees = parse(Scripts.BINARY_TREES);
+    list = parse(Scripts.LIST);
+    map = parse(Scripts.MAP);
+    buffer = parse(Scripts.BUFFER);
+  }
+
+  private List<Stmt> parse(String source) {
+    List<Token> tokens = new Scanner(source, reporter).scanTokens();
+    List<Stmt> statements = new Parser(tokens, reporter).parse();
+    if (reporter.hadError) {
+      throw new IllegalStateException("Benchmark script has errors.");
+    }
+
+    // Make sure it runs cleanly before timing it.
+    interpreter.interpret(statements);
+    if (reporter.hadRuntimeError) {
+      throw new IllegalStateException("Benchmark script failed.");
+    }
+    return statements;
+  }
+
+  @Benchmark
+  public void variableLookup() {
+    interpreter.interpret(variableLookup);
+  }
+
+  @Benchmark
+  public void calls() {
+    interpreter.interpret(calls);
+  }
+
+  @Benchmark
+  public void stringConcat() {
+    interpreter.interpret(stringConcat);
+  }
+
+  @Benchmark
+  public void fib() {
+    interpreter.interpret(fib);
+  }
+
+  @Benchmark
+  public void loop() {
+    interpreter.interpret(loop);
+  }
+
+  @Benchmark
+  public void binaryTrees() {
+    interpreter.interpret(binaryTrees);
+  }
+
+  @Benchmark
+  public void list() {
+    interpreter.interpret(list);
+  }
+
+  @Benchmark
+  public void map() {
+    interpreter.interpret(map);
+  }
+
+  @Benchmark
+  public void buffer() {
+    interpreter.interpret(buffer);
+  }
+}
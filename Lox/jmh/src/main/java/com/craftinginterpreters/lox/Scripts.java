@@ -0,0 +1,123 @@
+package com.craftinginterpreters.lox;
+
+// The Lox programs the benchmarks run. None of them print, so output
+// costs don't blur the numbers.
+final class Scripts {
+  private Scripts() {}
+
+  // Reads variables declared one, two and three scopes out, plus a
+  // global, on every iteration.
+  static final String VARIABLE_LOOKUP =
+      "var g = 0;\n" +
+      "{\n" +
+      "  var a = 1;\n" +
+      "  {\n" +
+      "    var b = 2;\n" +
+      "    {\n" +
+      "      var c = 3;\n" +
+      "      var i = 0;\n" +
+      "      while (i < 10000) {\n" +
+      "        g = g + a + b + c;\n" +
+      "        i = i + 1;\n" +
+      "      }\n" +
+      "    }\n" +
+      "  }\n" +
+      "}\n";
+
+  static final String CALLS =
+      "fun first(a, b) { return a; }\n" +
+      "var i = 0;\n" +
+      "while (i < 10000) {\n" +
+      "  first(i, i);\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  static final String STRING_CONCAT =
+      "var s = \"\";\n" +
+      "var i = 0;\n" +
+      "while (i < 1000) {\n" +
+      "  var part = \"a\" + \"b\" + \"c\";\n" +
+      "  s = s + part;\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  static final String FIB =
+      "fun fib(n) {\n" +
+      "  if (n < 2) return n;\n" +
+      "  return fib(n - 1) + fib(n - 2);\n" +
+      "}\n" +
+      "fib(20);\n";
+
+  static final String LOOP =
+      "var total = 0;\n" +
+      "for (var i = 0; i < 100000; i = i + 1) {\n" +
+      "  total = total + i;\n" +
+      "}\n";
+
+  // jlox doesn't run classes yet, so a tree node is a closure that
+  // hands back its left or right child.
+  static final String BINARY_TREES =
+      "fun make(depth) {\n" +
+      "  if (depth == 0) return nil;\n" +
+      "  var left = make(depth - 1);\n" +
+      "  var right = make(depth - 1);\n" +
+      "  fun node(isLeft) {\n" +
+      "    if (isLeft) return left;\n" +
+      "    return right;\n" +
+      "  }\n" +
+      "  return node;\n" +
+      "}\n" +
+      "fun check(tree) {\n" +
+      "  if (tree == nil) return 1;\n" +
+      "  return 1 + check(tree(true)) + check(tree(false));\n" +
+      "}\n" +
+      "for (var i = 0; i < 4; i = i + 1) {\n" +
+      "  check(make(10));\n" +
+      "}\n";
+
+  // Fills a list with numbers and sums it through the list natives.
+  static final String LIST =
+      "var items = list();\n" +
+      "for (var i = 0; i < 10000; i = i + 1) push(items, i);\n" +
+      "var total = 0;\n" +
+      "for (var i = 0; i < len(items); i = i + 1) {\n" +
+      "  total = total + get(items, i);\n" +
+      "}\n";
+
+  // Counts words in a map keyed by strings, then by numbers.
+  static final String MAP =
+      "var words = list();\n" +
+      "push(words, \"alpha\"); push(words, \"beta\");\n" +
+      "push(words, \"gamma\"); push(words, \"delta\");\n" +
+      "var counts = map();\n" +
+      "var next = 0;\n" +
+      "for (var i = 0; i < 10000; i = i + 1) {\n" +
+      "  var word = get(words, next);\n" +
+      "  next = next + 1;\n" +
+      "  if (next == 4) next = 0;\n" +
+      "  var count = get(counts, word);\n" +
+      "  if (count == nil) count = 0;\n" +
+      "  set(counts, word, count + 1);\n" +
+      "  set(counts, i, i);\n" +
+      "}\n";
+
+  // Bulk operations on an off-heap buffer, one of them calling back into
+  // Lox for each element.
+  static final String BUFFER =
+      "fun half(x) { return x / 2; }\n" +
+      "var numbers = buffer(100000);\n" +
+      "fill(numbers, 3);\n" +
+      "transform(numbers, half);\n" +
+      "sum(slice(numbers, 0, 50000));\n";
+
+  // A larger program for the front end: every script above, repeated.
+  static String program(int copies) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < copies; i++) {
+      source.append(VARIABLE_LOOKUP).append(CALLS).append(STRING_CONCAT)
+          .append(FIB).append(LOOP).append(BINARY_TREES).append(LIST)
+          .append(MAP).append(BUFFER);
+    }
+    return source.toString();
+  }
+}
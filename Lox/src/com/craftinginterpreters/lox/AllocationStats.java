@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+// Rough counts of what a script allocated during one run. These are
+// totals, not live memory: nothing is subtracted when garbage is
+// collected. Byte figures are estimates of typical JVM object sizes, good
+// enough to tell a well-behaved script from one that's running away.
+public class AllocationStats {
+  // A String, its array header and an average of 2 bytes per char.
+  private static final long STRING_OVERHEAD = 40;
+  // An Environment with its HashMap and a small table.
+  static final long ENVIRONMENT_BYTES = 160;
+  static final long CLOSURE_BYTES = 24;
+  // A reference in a list's array, and an entry across a map's key,
+  // value and hash arrays at its load factor.
+  static final long LIST_SLOT_BYTES = 8;
+  static final long MAP_ENTRY_BYTES = 40;
+
+  private final long strings;
+  private final long stringBytes;
+  private final long environments;
+  private final long closures;
+  private final long nativeBytes;
+
+  AllocationStats(long strings, long stringBytes, long environments,
+                  long closures, long nativeBytes) {
+    this.strings = strings;
+    this.stringBytes = stringBytes;
+    this.environments = environments;
+    this.closures = closures;
+    this.nativeBytes = nativeBytes;
+  }
+
+  static long stringBytes(long length) {
+    return STRING_OVERHEAD + 2L * length;
+  }
+
+  static long approximateBytes(long stringBytes, long environments,
+                               long closures, long nativeBytes) {
+    return stringBytes + environments * ENVIRONMENT_BYTES +
+        closures * CLOSURE_BYTES + nativeBytes;
+  }
+
+  // Strings built by concatenation.
+  public long strings() {
+    return strings;
+  }
+
+  public long stringBytes() {
+    return stringBytes;
+  }
+
+  // Scopes created for blocks and calls.
+  public long environments() {
+    return environments;
+  }
+
+  // Functions declared, each capturing its enclosing scope.
+  public long closures() {
+    return closures;
+  }
+
+  // Lists, maps and buffers the natives created or grew, and strings
+  // they read.
+  public long nativeBytes() {
+    return nativeBytes;
+  }
+
+  public long approximateBytes() {
+    return approximateBytes(stringBytes, environments, closures,
+        nativeBytes);
+  }
+
+  @Override
+  public String toString() {
+    return strings + " strings (" + stringBytes + " bytes), " +
+        environments + " environments, " + closures + " closures, " +
+        nativeBytes + " bytes from natives, ~" +
+        approximateBytes() + " bytes";
+  }
+}
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// Stores parsed programs as .loxc files named after the SHA-256 of their
+// source, so running an unchanged script again can skip the scanner and
+// parser. Anything wrong with a cache file just counts as a miss.
+class AstCache {
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+  // Bump whenever the node types in GenerateAst change.
+  private static final int VERSION = 3;
+
+  private final Path directory;
+
+  AstCache(Path directory) {
+    this.directory = directory;
+  }
+
+  List<Stmt> load(String source) {
+    Path path = pathFor(source);
+    if (!Files.isRegularFile(path)) return null;
+
+    // Read the whole file first, so the codec knows how many bytes are
+    // left and can reject sizes a corrupt file claims.
+    try (DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(Files.readAllBytes(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      return AstCodec.read(in);
+    } catch (IOException | RuntimeException | StackOverflowError error) {
+      // However the file is broken, it's just a miss.
+      return null;
+    }
+  }
+
+  void store(String source, List<Stmt> statements) {
+    Path path = pathFor(source);
+    Path temp = null;
+    try {
+      Files.createDirectories(directory);
+      temp = Files.createTempFile(directory, "ast", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        AstCodec.write(out, statements);
+      }
+
+      // Readers only ever see a complete file.
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException error) {
+      // The cache is only an optimization, so run without it.
+      if (temp != null) temp.toFile().delete();
+    }
+  }
+
+  private Path pathFor(String source) {
+    byte[] hash;
+    try {
+      hash = MessageDigest.getInstance("SHA-256")
+          .digest(source.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException error) {
+      throw new AssertionError(error); // Every JVM provides SHA-256.
+    }
+
+    StringBuilder name = new StringBuilder();
+    for (byte b : hash) {
+      name.append(Character.forDigit((b >> 4) & 0xf, 16));
+      name.append(Character.forDigit(b & 0xf, 16));
+    }
+    name.append(".loxc");
+    return directory.resolve(name.toString());
+  }
+}
@@ -0,0 +1,550 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class AstCodec {
+  static void write(DataOutputStream out, List<Stmt> statements)
+      throws IOException {
+    try {
+      new Encoder(out).writeStmtList(statements);
+    } catch (UncheckedIOException error) {
+      throw error.getCause();
+    }
+  }
+
+  // in's available() must give the exact number of bytes left, as it
+  // does for a stream over an array. Sizes are checked against it, so
+  // corrupt input can't ask for a huge allocation.
+  static List<Stmt> read(DataInputStream in) throws IOException {
+    try {
+      return new Decoder(in).readStmtList(Stmt.class);
+    } catch (ClassCastException | IndexOutOfBoundsException |
+             StackOverflowError error) {
+      throw new IOException("Malformed AST.", error);
+    }
+  }
+
+  private static class Encoder
+      implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int line = 0;
+
+    Encoder(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void writeExpr(Expr node) {
+      if (node == null) {
+        writeByte(-1);
+      } else {
+        node.accept(this);
+      }
+    }
+
+    void writeExprList(List<? extends Expr> nodes) {
+      writeVarint(nodes.size());
+      for (Expr node : nodes) {
+        writeExpr(node);
+      }
+    }
+
+    void writeStmt(Stmt node) {
+      if (node == null) {
+        writeByte(-1);
+      } else {
+        node.accept(this);
+      }
+    }
+
+    void writeStmtList(List<? extends Stmt> nodes) {
+      writeVarint(nodes.size());
+      for (Stmt node : nodes) {
+        writeStmt(node);
+      }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      writeByte(0);
+      writeToken(expr.name);
+      writeExpr(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      writeByte(1);
+      writeExpr(expr.left);
+      writeToken(expr.operator);
+      writeExpr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      writeByte(2);
+      writeExpr(expr.callee);
+      writeToken(expr.paren);
+      writeExprList(expr.arguments);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      writeByte(3);
+      writeExpr(expr.object);
+      writeToken(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      writeByte(4);
+      writeExpr(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      writeByte(5);
+      writeLiteral(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      writeByte(6);
+      writeExpr(expr.left);
+      writeToken(expr.operator);
+      writeExpr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      writeByte(7);
+      writeExpr(expr.object);
+      writeToken(expr.name);
+      writeExpr(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      writeByte(8);
+      writeToken(expr.keyword);
+      writeToken(expr.method);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      writeByte(9);
+      writeToken(expr.keyword);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      writeByte(10);
+      writeToken(expr.operator);
+      writeExpr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      writeByte(11);
+      writeToken(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      writeByte(0);
+      writeLine(stmt.line);
+      writeStmtList(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      writeByte(1);
+      writeLine(stmt.line);
+      writeToken(stmt.name);
+      writeExpr(stmt.superclass);
+      writeStmtList(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      writeByte(2);
+      writeLine(stmt.line);
+      writeExpr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      writeByte(3);
+      writeLine(stmt.line);
+      writeToken(stmt.name);
+      writeTokenList(stmt.params);
+      writeStmtList(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      writeByte(4);
+      writeLine(stmt.line);
+      writeExpr(stmt.condition);
+      writeStmt(stmt.thenBranch);
+      writeStmt(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      writeByte(5);
+      writeLine(stmt.line);
+      writeExpr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      writeByte(6);
+      writeLine(stmt.line);
+      writeToken(stmt.keyword);
+      writeExpr(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      writeByte(7);
+      writeLine(stmt.line);
+      writeToken(stmt.name);
+      writeExpr(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      writeByte(8);
+      writeLine(stmt.line);
+      writeToken(stmt.keyword);
+      writeExpr(stmt.condition);
+      writeStmt(stmt.body);
+      return null;
+    }
+
+    private void writeTokenList(List<Token> tokens) {
+      writeVarint(tokens.size());
+      for (Token token : tokens) {
+        writeToken(token);
+      }
+    }
+
+    private void writeToken(Token token) {
+      if (token == null) {
+        writeByte(-1);
+        return;
+      }
+
+      writeByte(token.type.ordinal());
+      writeString(token.lexeme);
+      writeLiteral(token.literal);
+      writeLine(token.line);
+    }
+
+    private void writeLine(int next) {
+      // Lines only creep forward, so the delta nearly always fits a byte.
+      int delta = next - line;
+      writeVarint((delta << 1) ^ (delta >> 31));
+      line = next;
+    }
+
+    private void writeLiteral(Object value) {
+      try {
+        if (value == null) {
+          out.writeByte(0);
+        } else if (value instanceof Boolean) {
+          out.writeByte((Boolean)value ? 2 : 1);
+        } else if (value instanceof Double) {
+          out.writeByte(3);
+          out.writeDouble((Double)value);
+        } else {
+          out.writeByte(4);
+          writeString((String)value);
+        }
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void writeString(String string) {
+      Integer index = strings.get(string);
+      if (index != null) {
+        writeVarint(index + 1);
+        return;
+      }
+
+      strings.put(string, strings.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarint(0);
+      writeVarint(bytes.length);
+      try {
+        out.write(bytes);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    private void writeByte(int value) {
+      try {
+        out.writeByte(value);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+  }
+
+  private static class Decoder {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private int line = 0;
+
+    Decoder(DataInputStream in) {
+      this.in = in;
+    }
+
+    <T extends Expr> T readExpr(Class<T> type) throws IOException {
+      int tag = in.readByte();
+      switch (tag) {
+        case -1: return null;
+        case 0:
+          return type.cast(new Expr.Assign(
+              readToken(),
+              readExpr(Expr.class)));
+        case 1:
+          return type.cast(new Expr.Binary(
+              readExpr(Expr.class),
+              readToken(),
+              readExpr(Expr.class)));
+        case 2:
+          return type.cast(new Expr.Call(
+              readExpr(Expr.class),
+              readToken(),
+              readExprList(Expr.class)));
+        case 3:
+          return type.cast(new Expr.Get(
+              readExpr(Expr.class),
+              readToken()));
+        case 4:
+          return type.cast(new Expr.Grouping(
+              readExpr(Expr.class)));
+        case 5:
+          return type.cast(new Expr.Literal(
+              readLiteral()));
+        case 6:
+          return type.cast(new Expr.Logical(
+              readExpr(Expr.class),
+              readToken(),
+              readExpr(Expr.class)));
+        case 7:
+          return type.cast(new Expr.Set(
+              readExpr(Expr.class),
+              readToken(),
+              readExpr(Expr.class)));
+        case 8:
+          return type.cast(new Expr.Super(
+              readToken(),
+              readToken()));
+        case 9:
+          return type.cast(new Expr.This(
+              readToken()));
+        case 10:
+          return type.cast(new Expr.Unary(
+              readToken(),
+              readExpr(Expr.class)));
+        case 11:
+          return type.cast(new Expr.Variable(
+              readToken()));
+      }
+
+      throw new IOException("Unknown Expr tag " + tag + ".");
+    }
+
+    <T extends Stmt> T readStmt(Class<T> type) throws IOException {
+      int tag = in.readByte();
+      if (tag == -1) return null;
+
+      int line = readLine();
+      Stmt node;
+      switch (tag) {
+        case 0:
+          node = new Stmt.Block(
+              readStmtList(Stmt.class));
+          break;
+        case 1:
+          node = new Stmt.Class(
+              readToken(),
+              readExpr(Expr.Variable.class),
+              readStmtList(Stmt.Function.class));
+          break;
+        case 2:
+          node = new Stmt.Expression(
+              readExpr(Expr.class));
+          break;
+        case 3:
+          node = new Stmt.Function(
+              readToken(),
+              readTokenList(),
+              readStmtList(Stmt.class));
+          break;
+        case 4:
+          node = new Stmt.If(
+              readExpr(Expr.class),
+              readStmt(Stmt.class),
+              readStmt(Stmt.class));
+          break;
+        case 5:
+          node = new Stmt.Print(
+              readExpr(Expr.class));
+          break;
+        case 6:
+          node = new Stmt.Return(
+              readToken(),
+              readExpr(Expr.class));
+          break;
+        case 7:
+          node = new Stmt.Var(
+              readToken(),
+              readExpr(Expr.class));
+          break;
+        case 8:
+          node = new Stmt.While(
+              readToken(),
+              readExpr(Expr.class),
+              readStmt(Stmt.class));
+          break;
+        default:
+          throw new IOException("Unknown Stmt tag " + tag + ".");
+      }
+
+      node.line = line;
+      return type.cast(node);
+    }
+
+    <T extends Expr> List<T> readExprList(Class<T> type)
+        throws IOException {
+      int size = readSize();
+      List<T> nodes = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        nodes.add(readExpr(type));
+      }
+      return nodes;
+    }
+
+    <T extends Stmt> List<T> readStmtList(Class<T> type)
+        throws IOException {
+      int size = readSize();
+      List<T> nodes = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        nodes.add(readStmt(type));
+      }
+      return nodes;
+    }
+
+    private List<Token> readTokenList() throws IOException {
+      int size = readSize();
+      List<Token> tokens = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        tokens.add(readToken());
+      }
+      return tokens;
+    }
+
+    private Token readToken() throws IOException {
+      int type = in.readByte();
+      if (type == -1) return null;
+
+      String lexeme = readString();
+      Object literal = readLiteral();
+      return new Token(tokenTypes[type], lexeme, literal, readLine());
+    }
+
+    private int readLine() throws IOException {
+      int delta = readVarint();
+      line += (delta >>> 1) ^ -(delta & 1);
+      return line;
+    }
+
+    private Object readLiteral() throws IOException {
+      int kind = in.readByte();
+      switch (kind) {
+        case 0: return null;
+        case 1: return false;
+        case 2: return true;
+        case 3: return in.readDouble();
+        case 4: return readString();
+      }
+
+      throw new IOException("Unknown literal kind " + kind + ".");
+    }
+
+    private String readString() throws IOException {
+      int index = readVarint();
+      if (index != 0) return strings.get(index - 1);
+
+      byte[] bytes = new byte[readSize()];
+      in.readFully(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    // Every element and every byte of a string takes at least a byte,
+    // so a size bigger than what's left must be corrupt.
+    private int readSize() throws IOException {
+      int size = readVarint();
+      if (size < 0 || size > in.available()) {
+        throw new IOException("Malformed size " + size + ".");
+      }
+      return size;
+    }
+
+    private int readVarint() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int part = in.readUnsignedByte();
+        value |= (part & 0x7f) << shift;
+        if ((part & 0x80) == 0) return value;
+      }
+
+      throw new IOException("Malformed varint.");
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Prints the same s-expressions as AstPrinter, but streams them straight
+// into an Appendable instead of building nested strings. It also keeps
+// its own stack of pending work rather than recursing, so the depth of
+// the tree is limited by the heap and not by the Java call stack.
+//
+// Visiting a node doesn't print it: it pushes the node's pieces (text,
+// tokens and child nodes) in order, and the loop in drain() pops them
+// one at a time.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Appendable out;
+  private final Deque<Object> pending = new ArrayDeque<>();
+
+  AstWriter(Appendable out) {
+    this.out = out;
+  }
+
+  void print(Expr expr) throws IOException {
+    pending.push(expr);
+    drain();
+  }
+
+  void print(Stmt stmt) throws IOException {
+    pending.push(stmt);
+    drain();
+  }
+
+  // Prints each statement on its own line.
+  void print(List<Stmt> statements) throws IOException {
+    for (Stmt statement : statements) {
+      print(statement);
+      out.append('\n');
+    }
+  }
+
+  private void drain() throws IOException {
+    try {
+      while (!pending.isEmpty()) {
+        Object part = pending.pop();
+        if (part instanceof Expr) {
+          ((Expr)part).accept(this);
+        } else if (part instanceof Stmt) {
+          ((Stmt)part).accept(this);
+        } else if (part instanceof Token) {
+          out.append(((Token)part).lexeme);
+        } else {
+          out.append(String.valueOf(part));
+        }
+      }
+    } catch (UncheckedIOException error) {
+      pending.clear();
+      throw error.getCause();
+    } catch (RuntimeException error) {
+      pending.clear();
+      throw error;
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    List<Object> parts = new ArrayList<>();
+    parts.add("(block ");
+    parts.addAll(stmt.statements);
+    parts.add(")");
+    return push(parts);
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    List<Object> parts = new ArrayList<>();
+    parts.add("(class " + stmt.name.lexeme);
+
+    if (stmt.superclass != null) {
+      parts.add(" < ");
+      parts.add(stmt.superclass);
+    }
+
+    for (Stmt.Function method : stmt.methods) {
+      parts.add(" ");
+      parts.add(method);
+    }
+
+    parts.add(")");
+    return push(parts);
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    return parenthesize(";", stmt.expression);
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    List<Object> parts = new ArrayList<>();
+    parts.add("(fun " + stmt.name.lexeme + "(");
+
+    for (Token param : stmt.params) {
+      if (param != stmt.params.get(0)) parts.add(" ");
+      parts.add(param);
+    }
+
+    parts.add(") ");
+    parts.addAll(stmt.body);
+    parts.add(")");
+    return push(parts);
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    if (stmt.elseBranch == null) {
+      return parenthesize2("if", stmt.condition, stmt.thenBranch);
+    }
+
+    return parenthesize2("if-else", stmt.condition, stmt.thenBranch,
+        stmt.elseBranch);
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    return parenthesize("print", stmt.expression);
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) return push(List.of("(return)"));
+    return parenthesize("return", stmt.value);
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      return parenthesize2("var", stmt.name);
+    }
+
+    return parenthesize2("var", stmt.name, "=", stmt.initializer);
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    return parenthesize2("while", stmt.condition, stmt.body);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    return parenthesize2("=", expr.name.lexeme, expr.value);
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    return parenthesize2("call", expr.callee, expr.arguments);
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    return parenthesize2(".", expr.object, expr.name.lexeme);
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    return parenthesize("group", expr.expression);
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) return push(List.of("nil"));
+    return push(List.of(expr.value.toString()));
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    return parenthesize2("=", expr.object, expr.name.lexeme, expr.value);
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return parenthesize2("super", expr.method);
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return push(List.of("this"));
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    return parenthesize(expr.operator.lexeme, expr.right);
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return push(List.of(expr.name.lexeme));
+  }
+
+  private Void parenthesize(String name, Expr... exprs) {
+    List<Object> parts = new ArrayList<>();
+    parts.add("(" + name);
+    for (Expr expr : exprs) {
+      parts.add(" ");
+      parts.add(expr);
+    }
+    parts.add(")");
+    return push(parts);
+  }
+
+  // Matches AstPrinter.parenthesize2(), including the extra space it
+  // puts before the elements of a list.
+  private Void parenthesize2(String name, Object... parts) {
+    List<Object> flattened = new ArrayList<>();
+    flattened.add("(" + name);
+    transform(flattened, parts);
+    flattened.add(")");
+    return push(flattened);
+  }
+
+  private void transform(List<Object> flattened, Object... parts) {
+    for (Object part : parts) {
+      flattened.add(" ");
+      if (part instanceof List) {
+        transform(flattened, ((List<?>)part).toArray());
+      } else {
+        flattened.add(part);
+      }
+    }
+  }
+
+  // Pushes parts so that the first one is popped first.
+  private Void push(List<?> parts) {
+    for (int i = parts.size() - 1; i >= 0; i--) {
+      Object part = parts.get(i);
+      // ArrayDeque doesn't allow nulls, and AstPrinter prints them as
+      // "null".
+      pending.push(part == null ? "null" : part);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// The Lox functions currently executing in one interpreter, outermost
+// first. Only kept while profiling. The interpreter thread pushes and
+// pops; the sampler thread reads it without locking and may see a frame
+// that was just popped, which is fine for sampling.
+class CallStack {
+  private Stmt.Function[] frames = new Stmt.Function[64];
+  // Written last, so a sampler that reads depth also sees the frames
+  // below it.
+  private volatile int depth = 0;
+  // Set when Lox code ran on worker threads, which have no call stack of
+  // their own, so the samples miss that time.
+  volatile boolean missedWorkers = false;
+
+  void push(Stmt.Function function) {
+    int top = depth;
+    if (top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+    frames[top] = function;
+    depth = top + 1;
+  }
+
+  void pop() {
+    depth = depth - 1;
+  }
+
+  // Renders the stack as one line of collapsed-stack output, like
+  // "<script>;main:3;fib:10".
+  String collapse() {
+    int top = depth;
+    Stmt.Function[] snapshot = frames;
+    StringBuilder builder = new StringBuilder("<script>");
+    for (int i = 0; i < top && i < snapshot.length; i++) {
+      Stmt.Function function = snapshot[i];
+      if (function == null) break;
+
+      builder.append(';').append(function.name.lexeme)
+          .append(':').append(function.name.line);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Counts how often each function is called and each statement runs, and
+// how long each function takes. The counts live on the AST nodes, so the
+// interpreter only bumps a field; this class keeps the stack of open
+// calls for timing and the programs to walk when reporting.
+class Counters {
+  private final List<Stmt> programs = new ArrayList<>();
+  private Stmt.Function[] functions = new Stmt.Function[64];
+  private long[] starts = new long[64];
+  // Time spent in callees of each open call, to subtract from its self
+  // time.
+  private long[] children = new long[64];
+  private int depth = 0;
+  // Set when Lox code ran on parallelMap(), parallelReduce() or spawn()
+  // workers. They don't count, since the counts live in unsynchronized
+  // fields on the shared AST, so the report says it's incomplete.
+  volatile boolean missedWorkers = false;
+
+  void add(List<Stmt> statements) {
+    programs.addAll(statements);
+  }
+
+  void enter(Stmt.Function function) {
+    if (depth == functions.length) {
+      functions = Arrays.copyOf(functions, depth * 2);
+      starts = Arrays.copyOf(starts, depth * 2);
+      children = Arrays.copyOf(children, depth * 2);
+    }
+
+    function.calls++;
+    function.active++;
+    functions[depth] = function;
+    children[depth] = 0;
+    starts[depth] = System.nanoTime();
+    depth++;
+  }
+
+  void exit() {
+    long elapsed = System.nanoTime() - starts[--depth];
+    Stmt.Function function = functions[depth];
+    function.selfNanos += elapsed - children[depth];
+    // Only the outermost of a recursive function's calls adds to its
+    // total, or the time would be counted once per level.
+    if (--function.active == 0) function.totalNanos += elapsed;
+    if (depth > 0) children[depth - 1] += elapsed;
+  }
+
+  // Writes functions by total time, then lines by how often they ran.
+  // A line's count is the most any statement starting there ran.
+  void writeTable(Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    out.printf("%-24s %6s %12s %12s %12s%n",
+        "function", "line", "calls", "total ms", "self ms");
+    for (Stmt.Function function : functions()) {
+      out.printf("%-24s %6d %12d %12.3f %12.3f%n",
+          function.name.lexeme, function.name.line, function.calls,
+          function.totalNanos / 1e6, function.selfNanos / 1e6);
+    }
+
+    out.println();
+    out.printf("%6s %12s%n", "line", "executions");
+    for (Map.Entry<Integer, Long> line : lines()) {
+      out.printf("%6d %12d%n", line.getKey(), line.getValue());
+    }
+
+    if (missedWorkers) {
+      out.println();
+      out.println("Calls and statements run on parallelMap, " +
+          "parallelReduce or spawn workers aren't counted.");
+    }
+    out.flush();
+  }
+
+  void writeJson(Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    out.println("{");
+    out.println("  \"missedWorkers\": " + missedWorkers + ",");
+    out.println("  \"functions\": [");
+    List<Stmt.Function> functions = functions();
+    for (int i = 0; i < functions.size(); i++) {
+      Stmt.Function function = functions.get(i);
+      // Identifiers never need escaping.
+      out.printf("    {\"name\": \"%s\", \"line\": %d, \"calls\": %d, " +
+              "\"totalNanos\": %d, \"selfNanos\": %d}%s%n",
+          function.name.lexeme, function.name.line, function.calls,
+          function.totalNanos, function.selfNanos,
+          i < functions.size() - 1 ? "," : "");
+    }
+    out.println("  ],");
+    out.println("  \"lines\": [");
+    List<Map.Entry<Integer, Long>> lines = lines();
+    for (int i = 0; i < lines.size(); i++) {
+      out.printf("    {\"line\": %d, \"executions\": %d}%s%n",
+          lines.get(i).getKey(), lines.get(i).getValue(),
+          i < lines.size() - 1 ? "," : "");
+    }
+    out.println("  ]");
+    out.println("}");
+    out.flush();
+  }
+
+  private List<Stmt.Function> functions() {
+    List<Stmt.Function> functions = new ArrayList<>();
+    for (Stmt stmt : statements()) {
+      if (stmt.kind == Stmt.FUNCTION && ((Stmt.Function)stmt).calls > 0) {
+        functions.add((Stmt.Function)stmt);
+      }
+    }
+    functions.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+    return functions;
+  }
+
+  private List<Map.Entry<Integer, Long>> lines() {
+    Map<Integer, Long> lines = new TreeMap<>();
+    for (Stmt stmt : statements()) {
+      // A block's count just repeats the statement that contains it.
+      if (stmt.kind == Stmt.BLOCK || stmt.executions == 0) continue;
+      lines.merge(stmt.line, stmt.executions, Math::max);
+    }
+
+    List<Map.Entry<Integer, Long>> sorted =
+        new ArrayList<>(lines.entrySet());
+    sorted.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+    return sorted;
+  }
+
+  // Every statement in the programs, nested ones included.
+  private List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+    List<Stmt> pending = new ArrayList<>(programs);
+    while (!pending.isEmpty()) {
+      Stmt stmt = pending.remove(pending.size() - 1);
+      if (stmt == null) continue;
+
+      statements.add(stmt);
+      switch (stmt.kind) {
+        case Stmt.BLOCK:
+          pending.addAll(((Stmt.Block)stmt).statements);
+          break;
+        case Stmt.CLASS:
+          pending.addAll(((Stmt.Class)stmt).methods);
+          break;
+        case Stmt.FUNCTION:
+          pending.addAll(((Stmt.Function)stmt).body);
+          break;
+        case Stmt.IF:
+          pending.add(((Stmt.If)stmt).thenBranch);
+          pending.add(((Stmt.If)stmt).elseBranch);
+          break;
+        case Stmt.WHILE:
+          pending.add(((Stmt.While)stmt).body);
+          break;
+      }
+    }
+    return statements;
+  }
+}
@@ -1,29 +1,186 @@
 //> Statements and State environment-class
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Environment {
 //> enclosing-field
   final Environment enclosing;
 //< enclosing-field
   private final Map<String, Object> values = new HashMap<>();
+  // For pooled runtimes, the globals remember the original value of each
+  // name changed since track() so rollback() can undo just those. UNSET
+  // marks names that didn't exist yet.
+  private static final Object UNSET = new Object();
+  private Map<String, Object> journal = null;
+  // A snapshot is a frozen set of globals that many forks read through.
+  // A fork keeps only the names it has written and finds the rest in
+  // its snapshot. Frozen environments are never written again, which is
+  // what makes it safe for forks on different threads to share them.
+  private final Environment snapshot;
+  private boolean frozen = false;
+  // The fork the current thread is running in. Prelude functions still
+  // close over the frozen globals, so the frozen globals send lookups
+  // here to reach the right fork.
+  private static final ThreadLocal<Environment> currentFork =
+      new ThreadLocal<>();
+  // Set once more than one thread can reach this environment, e.g. from
+  // a spawned task's closure. Shared environments lock around every
+  // read and write of their values. Whoever shares an environment sets
+  // this before handing it to the other thread, so no thread ever sees
+  // a shared environment as unshared.
+  private boolean shared = false;
+  // Globals are read by every task, so locking them would serialize
+  // the whole program. Once shared, they move out of values into a
+  // concurrent map of cells instead. Reading or assigning an existing
+  // name is then a lock-free map lookup and a volatile access; only
+  // defining a new name touches the map's structure.
+  private ConcurrentHashMap<String, Cell> cells = null;
+
+  private static final class Cell {
+    volatile Object value;
+
+    Cell(Object value) {
+      this.value = value;
+    }
+  }
 //> environment-constructors
   Environment() {
     enclosing = null;
+    snapshot = null;
   }
 
   Environment(Environment enclosing) {
     this.enclosing = enclosing;
+    snapshot = null;
   }
 //< environment-constructors
+
+  private Environment(Environment enclosing, Environment snapshot) {
+    this.enclosing = enclosing;
+    this.snapshot = snapshot;
+  }
+
+  // Returns empty globals that see everything in snapshot, which must
+  // have been frozen.
+  static Environment fork(Environment snapshot) {
+    return new Environment(null, snapshot);
+  }
+
+  boolean isFork() {
+    return snapshot != null;
+  }
+
+  // Makes fork the current thread's fork and returns the previous one so
+  // the caller can put it back.
+  static Environment enterFork(Environment fork) {
+    Environment previous = currentFork.get();
+    currentFork.set(fork);
+    return previous;
+  }
+
+  static void exitFork(Environment previous) {
+    currentFork.set(previous);
+  }
+
+  // Freezes this environment and every environment reachable from it,
+  // through enclosing scopes and the closures of the functions they
+  // hold.
+  void freeze() {
+    Deque<Environment> work = new ArrayDeque<>();
+    work.push(this);
+    while (!work.isEmpty()) {
+      Environment environment = work.pop();
+      if (environment.frozen) continue;
+
+      environment.frozen = true;
+      if (environment.enclosing != null) work.push(environment.enclosing);
+      for (Object value : environment.storedValues()) {
+        if (value instanceof LoxFunction) {
+          work.push(((LoxFunction)value).closure());
+        }
+      }
+    }
+  }
+
+  // Marks this environment and every environment reachable from it as
+  // shared, the same way freeze() walks them. Frozen ones are never
+  // written, so they don't need it.
+  void share() {
+    Deque<Environment> work = new ArrayDeque<>();
+    work.push(this);
+    while (!work.isEmpty()) {
+      Environment environment = work.pop();
+      if (environment.shared || environment.frozen) continue;
+
+      for (Object value : environment.values.values()) {
+        if (value instanceof LoxFunction) {
+          work.push(((LoxFunction)value).closure());
+        }
+      }
+
+      if (environment.enclosing != null) {
+        work.push(environment.enclosing);
+      } else {
+        environment.cells = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Object> entry :
+            environment.values.entrySet()) {
+          environment.cells.put(entry.getKey(), new Cell(entry.getValue()));
+        }
+        environment.values.clear();
+      }
+      environment.shared = true;
+    }
+  }
+
+  private Iterable<Object> storedValues() {
+    if (cells == null) return values.values();
+
+    List<Object> result = new ArrayList<>();
+    for (Cell cell : cells.values()) {
+      result.add(cell.value);
+    }
+    return result;
+  }
+
+  // A function stored in a shared environment can be called from any
+  // thread, so its closure must be shared too.
+  static void shareValue(Object value) {
+    if (value instanceof LoxFunction) {
+      ((LoxFunction)value).closure().share();
+    }
+  }
 //> environment-get
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
+    if (frozen) {
+      Environment fork = forkOf(this);
+      if (fork != null) return fork.get(name);
+    }
+
+    if (cells != null) {
+      Cell cell = cells.get(name.lexeme);
+      if (cell != null) return cell.value;
+    } else if (shared) {
+      synchronized (this) {
+        if (values.containsKey(name.lexeme)) {
+          return values.get(name.lexeme);
+        }
+      }
+    } else if (values.containsKey(name.lexeme)) {
       return values.get(name.lexeme);
     }
+
+    if (snapshot != null) {
+      Object value = fromSnapshots(name.lexeme);
+      if (value != UNSET) return value;
+    }
 //> environment-get-enclosing
 
     if (enclosing != null) return enclosing.get(name);
@@ -36,8 +193,20 @@ class Environment {
 //< environment-get
 //> environment-assign
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
+    if (frozen) {
+      assignFrozen(name, value);
+      return;
+    }
+
+    if (cells != null) {
+      shareValue(value);
+      if (assignCell(name, value)) return;
+    } else if (shared) {
+      shareValue(value);
+      synchronized (this) {
+        if (assignHere(name, value)) return;
+      }
+    } else if (assignHere(name, value)) {
       return;
     }
 
@@ -52,8 +221,90 @@ class Environment {
         "Undefined variable '" + name.lexeme + "'.");
   }
 //< environment-assign
+
+  private boolean assignHere(Token name, Object value) {
+    if (values.containsKey(name.lexeme)) {
+      if (journal != null) record(name.lexeme);
+      values.put(name.lexeme, value);
+      return true;
+    }
+
+    // Copy on write: the fork shadows the snapshot's binding.
+    if (snapshot != null && fromSnapshots(name.lexeme) != UNSET) {
+      if (journal != null) record(name.lexeme);
+      values.put(name.lexeme, value);
+      return true;
+    }
+
+    return false;
+  }
+
+  private boolean assignCell(Token name, Object value) {
+    Cell cell = cells.get(name.lexeme);
+    if (cell == null) {
+      if (snapshot == null || fromSnapshots(name.lexeme) == UNSET) {
+        return false;
+      }
+
+      // Copy on write, as in assignHere().
+      cell = cells.computeIfAbsent(name.lexeme, key -> new Cell(null));
+    }
+
+    if (journal != null) record(name.lexeme);
+    cell.value = value;
+    return true;
+  }
+
+  private void assignFrozen(Token name, Object value) {
+    Environment fork = forkOf(this);
+    if (fork != null) {
+      fork.assign(name, value);
+      return;
+    }
+
+    if (frozenValue(name.lexeme) != UNSET ||
+        (snapshot != null && fromSnapshots(name.lexeme) != UNSET)) {
+      throw new RuntimeError(name, "Can't assign to '" + name.lexeme +
+          "' because it was captured by a snapshot.");
+    }
+
+    if (enclosing != null) {
+      enclosing.assign(name, value);
+      return;
+    }
+
+    throw new RuntimeError(name,
+        "Undefined variable '" + name.lexeme + "'.");
+  }
 //> environment-define
   void define(String name, Object value) {
+    if (frozen) {
+      Environment fork = forkOf(this);
+      if (fork == null) {
+        throw new IllegalStateException("Environment is frozen.");
+      }
+      fork.define(name, value);
+      return;
+    }
+
+    if (cells != null) {
+      shareValue(value);
+      if (journal != null) record(name);
+      Cell cell = cells.putIfAbsent(name, new Cell(value));
+      if (cell != null) cell.value = value;
+      return;
+    }
+
+    if (shared) {
+      shareValue(value);
+      synchronized (this) {
+        if (journal != null) record(name);
+        values.put(name, value);
+      }
+      return;
+    }
+
+    if (journal != null) record(name);
     values.put(name, value);
   }
 //< environment-define
@@ -69,18 +320,134 @@ class Environment {
 //< Resolving and Binding ancestor
 //> Resolving and Binding get-at
   Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+    Environment environment = ancestor(distance);
+    if (environment.shared) {
+      synchronized (environment) {
+        return environment.getHere(name);
+      }
+    }
+    return environment.getHere(name);
+  }
+
+  private Object getHere(String name) {
+    if (cells != null) {
+      Cell cell = cells.get(name);
+      if (cell != null) return cell.value;
+    } else if (snapshot == null || values.containsKey(name)) {
+      return values.get(name);
+    }
+
+    Object value = fromSnapshots(name);
+    return value != UNSET ? value : null;
+  }
+
+  // Finds name in the snapshots behind this fork, nearest first, or
+  // returns UNSET. Forking a runtime that was itself a fork chains
+  // snapshots, and a fork sees through all of them.
+  private Object fromSnapshots(String name) {
+    for (Environment frozen = snapshot; frozen != null;
+         frozen = frozen.snapshot) {
+      Object value = frozen.frozenValue(name);
+      if (value != UNSET) return value;
+    }
+    return UNSET;
+  }
+
+  // Reads name from this frozen environment alone, or returns UNSET.
+  // Globals shared before they were frozen keep their bindings in cells
+  // rather than values. Nothing writes a frozen environment, so this
+  // doesn't lock.
+  private Object frozenValue(String name) {
+    if (cells != null) {
+      Cell cell = cells.get(name);
+      return cell != null ? cell.value : UNSET;
+    }
+    return values.containsKey(name) ? values.get(name) : UNSET;
   }
 //< Resolving and Binding get-at
 //> Resolving and Binding assign-at
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    Environment environment = ancestor(distance);
+    if (environment.frozen) {
+      environment.assignFrozen(name, value);
+      return;
+    }
+
+    if (environment.cells != null) {
+      environment.define(name.lexeme, value);
+      return;
+    }
+
+    if (environment.shared) {
+      shareValue(value);
+      synchronized (environment) {
+        if (environment.journal != null) environment.record(name.lexeme);
+        environment.values.put(name.lexeme, value);
+      }
+      return;
+    }
+
+    if (environment.journal != null) environment.record(name.lexeme);
+    environment.values.put(name.lexeme, value);
   }
 //< Resolving and Binding assign-at
+  void track() {
+    journal = new HashMap<>();
+  }
+
+  // Puts back every binding changed since track(), in time proportional
+  // to the number of names changed.
+  void rollback() {
+    for (Map.Entry<String, Object> entry : journal.entrySet()) {
+      if (cells != null) {
+        if (entry.getValue() == UNSET) {
+          cells.remove(entry.getKey());
+        } else {
+          cells.put(entry.getKey(), new Cell(entry.getValue()));
+        }
+      } else if (entry.getValue() == UNSET) {
+        values.remove(entry.getKey());
+      } else {
+        values.put(entry.getKey(), entry.getValue());
+      }
+    }
+    journal.clear();
+  }
+
+  // Only frozen globals have a fork to forward to, and only when the
+  // current thread is running a fork of them, directly or through a
+  // chain of snapshots.
+  private static Environment forkOf(Environment frozen) {
+    if (frozen.enclosing != null) return null;
+
+    Environment fork = currentFork.get();
+    if (fork == null) return null;
+    for (Environment behind = fork.snapshot; behind != null;
+         behind = behind.snapshot) {
+      if (behind == frozen) return fork;
+    }
+    return null;
+  }
+
+  private void record(String name) {
+    if (cells != null) {
+      // Tasks on other threads may be writing globals too.
+      synchronized (journal) {
+        if (journal.containsKey(name)) return;
+        Cell cell = cells.get(name);
+        journal.put(name, cell != null ? cell.value : UNSET);
+      }
+      return;
+    }
+
+    if (journal.containsKey(name)) return;
+    journal.put(name, values.containsKey(name) ? values.get(name) : UNSET);
+  }
 //> omit
   @Override
   public String toString() {
-    String result = values.toString();
+    String result = cells != null ? cells.keySet().toString()
+                                  : values.toString();
     if (enclosing != null) {
       result += " -> " + enclosing.toString();
     }
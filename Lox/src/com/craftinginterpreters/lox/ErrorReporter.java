@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+// Prints errors and remembers whether any happened. The Scanner, Parser
+// and Interpreter each report through the one they were given rather
+// than through static state, so separate runtimes don't see each other's
+// errors.
+class ErrorReporter {
+  private PrintWriter err;
+  boolean hadError = false;
+  // Spawned tasks report their errors from their own threads.
+  volatile boolean hadRuntimeError = false;
+  // Set when an error might go away given more source: the parser ran
+  // out of tokens, or a string was never closed. The REPL reads another
+  // line instead of reporting it.
+  boolean unfinished = false;
+
+  ErrorReporter(Writer err) {
+    this.err = new PrintWriter(err, true);
+  }
+
+  void setOutput(Writer err) {
+    this.err = new PrintWriter(err, true);
+  }
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  void errorAtEnd(int line, String message) {
+    unfinished = true;
+    report(line, "", message);
+  }
+
+  void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      unfinished = true;
+      report(token.line, " at end", message);
+    } else {
+      report(token.line, " at '" + token.lexeme + "'", message);
+    }
+  }
+
+  void runtimeError(RuntimeError error) {
+    LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+    if (event.shouldCommit()) {
+      event.message = error.getMessage();
+      event.line = error.token.line;
+      event.commit();
+    }
+
+    err.println(error.getMessage() +
+        "\n[line " + error.token.line + "]");
+    hadRuntimeError = true;
+  }
+
+  private void report(int line, String where, String message) {
+    err.println("[line " + line + "] Error" + where + ": " + message);
+    hadError = true;
+  }
+}
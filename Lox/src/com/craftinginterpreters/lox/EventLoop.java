@@ -0,0 +1,674 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking I/O for scripts, built on one selector. The natives only
+// queue work and return at once. When a script finishes, LoxRuntime
+// runs the loop on the same thread until nothing is left to wait for,
+// calling back into Lox as operations complete. Callbacks therefore run
+// one at a time on the thread that ran the script, never alongside it.
+//
+// Callbacks that report a result take (value, error): the error is nil
+// on success, and the value is nil on failure.
+class EventLoop {
+  private static final int READ_SIZE = 64 * 1024;
+
+  // Work queued by natives and by file reads completing on other
+  // threads. Only the loop thread takes from it.
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private final AtomicInteger filesReading = new AtomicInteger();
+  private long timersAdded = 0;
+  private Selector selector = null;
+  private Interpreter interpreter = null;
+  // Set when a callback fails, which stops the loop like an uncaught
+  // error stops a script.
+  private boolean failed = false;
+  // Bumped by closeAll() and abandonRun(). A file read that finishes
+  // afterwards belongs to a script that's gone, so its callback is
+  // dropped.
+  private int epoch = 0;
+  // Counts scripts, so abandonRun() can tell the sockets a failed one
+  // opened from those that earlier ones in the same runtime left open.
+  private int run = 0;
+  // The globals of the runtime whose loop this is. Only that runtime
+  // runs the loop, so the natives refuse calls from any other, such as
+  // a fork calling one its prelude captured before the snapshot.
+  private Environment owner = null;
+
+  void define(Environment globals) {
+    owner = globals;
+    // Listens on the loopback interface. Pass 0 to pick any free port,
+    // then ask localPort().
+    globals.define("listen", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object port, Object callback) {
+        checkOwner(interpreter);
+        int number = Natives.checkBound(port, 65535);
+        LoxCallable onConnection = Natives.checkFunction(callback, 2);
+        Listener listener;
+        try {
+          ServerSocketChannel channel = ServerSocketChannel.open();
+          channel.configureBlocking(false);
+          channel.bind(new InetSocketAddress(
+              InetAddress.getLoopbackAddress(), number));
+          listener = new Listener(channel, onConnection, run);
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+        // Register now rather than from the queue, so abandonRun() finds
+        // the channel to close even if the queue never runs.
+        register(listener.channel, SelectionKey.OP_ACCEPT, listener);
+        return listener;
+      }
+    });
+
+    globals.define("localPort", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object listener) {
+        return (double)checkListener(listener).channel.socket()
+            .getLocalPort();
+      }
+    });
+
+    // Connects only to this machine, like listen(). A script could
+    // otherwise reach any host the process can.
+    globals.define("connect", new NativeFunction(3) {
+      @Override
+      Object call3(Interpreter interpreter, Object host, Object port,
+                   Object callback) {
+        checkOwner(interpreter);
+        if (!(host instanceof String)) {
+          throw new NativeError("Host must be a string.");
+        }
+        int number = Natives.checkBound(port, 65535);
+        LoxCallable onConnect = Natives.checkFunction(callback, 2);
+        submit(() -> connect((String)host, number, onConnect));
+        return null;
+      }
+    });
+
+    // Calls back with the next chunk of text, or nil once the other end
+    // has closed the connection.
+    globals.define("read", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object connection,
+                   Object callback) {
+        checkOwner(interpreter);
+        Connection socket = checkConnection(connection);
+        LoxCallable onRead = Natives.checkFunction(callback, 2);
+        // The buffer the read allocates and the text it can decode to.
+        interpreter.chargeNative(
+            READ_SIZE + AllocationStats.stringBytes(READ_SIZE));
+        submit(() -> read(socket, onRead));
+        return null;
+      }
+    });
+
+    // The callback, which may be nil, runs once all of text is sent.
+    globals.define("write", new NativeFunction(3) {
+      @Override
+      Object call3(Interpreter interpreter, Object connection,
+                   Object text, Object callback) {
+        checkOwner(interpreter);
+        Connection socket = checkConnection(connection);
+        if (!(text instanceof String)) {
+          throw new NativeError("Can only write strings.");
+        }
+        LoxCallable onWritten = callback == null
+            ? null
+            : Natives.checkFunction(callback, 2);
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode((String)text);
+        submit(() -> write(socket, bytes, onWritten));
+        return null;
+      }
+    });
+
+    // Closes a connection or listener. Its pending callbacks never run.
+    globals.define("disconnect", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object handle) {
+        checkOwner(interpreter);
+        if (handle instanceof Connection) {
+          Connection socket = (Connection)handle;
+          submit(() -> close(socket.channel));
+        } else {
+          Listener listener = checkListener(handle);
+          submit(() -> close(listener.channel));
+        }
+        return null;
+      }
+    });
+
+    globals.define("timer", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object millis,
+                   Object callback) {
+        checkOwner(interpreter);
+        double delay = Natives.checkNumber(millis);
+        if (delay < 0) throw new NativeError("Delay can't be negative.");
+        LoxCallable onTimer = Natives.checkFunction(callback, 0);
+        long deadline = System.nanoTime() + (long)(delay * 1e6);
+        submit(() -> timers.add(
+            new Timer(deadline, timersAdded++, onTimer)));
+        return null;
+      }
+    });
+  }
+
+  // Defines readFile(), which reads local files like the natives from
+  // LoxRuntime.allowFileAccess(), so it's only defined when both are
+  // allowed.
+  void defineFileAccess(Environment globals) {
+    globals.define("readFile", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object path, Object callback) {
+        checkOwner(interpreter);
+        if (!(path instanceof String)) {
+          throw new NativeError("Path must be a string.");
+        }
+        LoxCallable onRead = Natives.checkFunction(callback, 2);
+        readFile(interpreter, (String)path, onRead);
+        return null;
+      }
+    });
+  }
+
+  // Called as each script starts. The loop ran until nothing was pending
+  // after the last one, so every callback pending from here on belongs
+  // to this script.
+  void startRun() {
+    run++;
+  }
+
+  // Runs callbacks until no operation is pending or one fails.
+  void run(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    failed = false;
+    try {
+      while (!failed) {
+        runQueued();
+        if (failed) break;
+        runTimers();
+        if (failed || !hasWork()) break;
+        select();
+      }
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    } finally {
+      if (failed) abandonRun();
+      this.interpreter = null;
+    }
+  }
+
+  private void runQueued() {
+    Runnable work;
+    while (!failed && (work = queue.poll()) != null) {
+      work.run();
+    }
+  }
+
+  private void runTimers() {
+    long now = System.nanoTime();
+    while (!failed && !timers.isEmpty() && timers.peek().deadline <= now) {
+      callBack(timers.poll().callback);
+    }
+  }
+
+  private boolean hasWork() {
+    if (!queue.isEmpty() || !timers.isEmpty()) return true;
+    if (filesReading.get() > 0) return true;
+    if (selector == null) return false;
+
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.interestOps() != 0) return true;
+    }
+    return false;
+  }
+
+  private void select() throws IOException {
+    Selector selector = selector();
+    if (!queue.isEmpty()) {
+      selector.selectNow();
+    } else if (timers.isEmpty()) {
+      selector.select();
+    } else {
+      long wait = timers.peek().deadline - System.nanoTime();
+      // select(0) means forever, so wait at least a millisecond.
+      selector.select(Math.max(1, (wait + 999_999) / 1_000_000));
+    }
+
+    for (SelectionKey key : selector.selectedKeys()) {
+      if (failed) break;
+      if (!key.isValid()) continue;
+
+      Object handle = key.attachment();
+      if (handle instanceof Listener) {
+        accept((Listener)handle);
+        continue;
+      }
+
+      Connection socket = (Connection)handle;
+      if (key.isConnectable()) finishConnect(socket);
+      if (key.isValid() && key.isReadable()) finishRead(socket);
+      if (key.isValid() && key.isWritable()) flushWrites(socket);
+    }
+    selector.selectedKeys().clear();
+  }
+
+  private void accept(Listener listener) {
+    try {
+      SocketChannel channel = listener.channel.accept();
+      if (channel == null) return;
+      channel.configureBlocking(false);
+      Connection socket = new Connection(channel, run);
+      register(channel, 0, socket);
+      callBack(listener.callback, socket, null);
+    } catch (IOException error) {
+      callBack(listener.callback, null, error.getMessage());
+    }
+  }
+
+  private void connect(String host, int port, LoxCallable callback) {
+    try {
+      SocketChannel channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      Connection socket = new Connection(channel, run);
+      socket.onConnect = callback;
+      InetSocketAddress address = new InetSocketAddress(host, port);
+      if (address.isUnresolved() ||
+          !address.getAddress().isLoopbackAddress()) {
+        channel.close();
+        callBack(callback, null, "Can only connect to this machine.");
+        return;
+      }
+      if (channel.connect(address)) {
+        register(channel, 0, socket);
+        socket.onConnect = null;
+        callBack(callback, socket, null);
+      } else {
+        register(channel, SelectionKey.OP_CONNECT, socket);
+      }
+    } catch (IOException | IllegalArgumentException error) {
+      callBack(callback, null, message(error));
+    }
+  }
+
+  private void finishConnect(Connection socket) {
+    LoxCallable callback = socket.onConnect;
+    socket.onConnect = null;
+    try {
+      socket.channel.finishConnect();
+      updateInterest(socket);
+      callBack(callback, socket, null);
+    } catch (IOException error) {
+      close(socket.channel);
+      callBack(callback, null, message(error));
+    }
+  }
+
+  private void read(Connection socket, LoxCallable callback) {
+    if (!socket.channel.isOpen()) {
+      callBack(callback, null, "Connection is closed.");
+    } else if (socket.onRead != null) {
+      callBack(callback, null, "A read is already pending.");
+    } else {
+      socket.onRead = callback;
+      updateInterest(socket);
+    }
+  }
+
+  private void finishRead(Connection socket) {
+    LoxCallable callback = socket.onRead;
+    socket.onRead = null;
+    ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+    try {
+      int count = socket.channel.read(bytes);
+      if (count == 0) {
+        // Nothing after all. Keep waiting.
+        socket.onRead = callback;
+        return;
+      }
+
+      updateInterest(socket);
+      bytes.flip();
+      String text = socket.decode(bytes, count < 0);
+      // A chunk that ends partway through a character may decode to
+      // nothing, so only report the end once everything is out.
+      if (count > 0 && text.isEmpty()) {
+        socket.onRead = callback;
+        return;
+      }
+      callBack(callback, count < 0 && text.isEmpty() ? null : text, null);
+    } catch (IOException error) {
+      close(socket.channel);
+      callBack(callback, null, message(error));
+    }
+  }
+
+  private void write(Connection socket, ByteBuffer bytes,
+                     LoxCallable callback) {
+    if (!socket.channel.isOpen()) {
+      if (callback != null) {
+        callBack(callback, null, "Connection is closed.");
+      }
+      return;
+    }
+
+    socket.writes.add(new Write(bytes, callback));
+    flushWrites(socket);
+  }
+
+  private void flushWrites(Connection socket) {
+    while (!failed && !socket.writes.isEmpty()) {
+      Write write = socket.writes.peek();
+      try {
+        socket.channel.write(write.bytes);
+      } catch (IOException error) {
+        socket.writes.clear();
+        close(socket.channel);
+        if (write.callback != null) {
+          callBack(write.callback, null, message(error));
+        }
+        return;
+      }
+
+      // The socket's buffer is full. Wait until it has room.
+      if (write.bytes.hasRemaining()) break;
+
+      socket.writes.poll();
+      if (write.callback != null) callBack(write.callback, null, null);
+    }
+    updateInterest(socket);
+  }
+
+  private void readFile(Interpreter interpreter, String path,
+                        LoxCallable callback) {
+    AsynchronousFileChannel channel;
+    ByteBuffer bytes;
+    try {
+      channel = AsynchronousFileChannel.open(Paths.get(path),
+          StandardOpenOption.READ);
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        channel.close();
+        throw new NativeError("File is too large to read at once.");
+      }
+      // The bytes and the text they decode to, before allocating either.
+      try {
+        interpreter.chargeNative(size + AllocationStats.stringBytes(size));
+      } catch (NativeError error) {
+        channel.close();
+        throw error;
+      }
+      bytes = ByteBuffer.allocate((int)size);
+    } catch (IOException | IllegalArgumentException error) {
+      submit(() -> callBack(callback, null, message(error)));
+      return;
+    }
+
+    int started = epoch;
+    filesReading.incrementAndGet();
+    channel.read(bytes, 0, null, new CompletionHandler<Integer, Void>() {
+      @Override
+      public void completed(Integer count, Void unused) {
+        // Files can come back short, or grow while being read.
+        if (count >= 0 && bytes.hasRemaining()) {
+          channel.read(bytes, bytes.position(), null, this);
+          return;
+        }
+
+        close(channel);
+        bytes.flip();
+        String text = StandardCharsets.UTF_8.decode(bytes).toString();
+        finish(started, () -> callBack(callback, text, null));
+      }
+
+      @Override
+      public void failed(Throwable error, Void unused) {
+        close(channel);
+        finish(started, () -> callBack(callback, null, message(error)));
+      }
+    });
+  }
+
+  // Hands a file read's callback to the loop. Queue it before dropping
+  // the count, so the loop never sees neither.
+  private void finish(int started, Runnable callback) {
+    queue.add(() -> {
+      if (epoch == started) callback.run();
+    });
+    filesReading.decrementAndGet();
+    wakeUp();
+  }
+
+  private void submit(Runnable work) {
+    queue.add(work);
+    wakeUp();
+  }
+
+  private synchronized void wakeUp() {
+    if (selector != null) selector.wakeup();
+  }
+
+  private synchronized Selector selector() throws IOException {
+    if (selector == null) selector = Selector.open();
+    return selector;
+  }
+
+  private void register(SelectableChannel channel, int interest,
+                        Object handle) {
+    try {
+      channel.register(selector(), interest, handle);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private void updateInterest(Connection socket) {
+    SelectionKey key = socket.channel.keyFor(selector);
+    if (key == null || !key.isValid()) return;
+
+    int interest = 0;
+    if (socket.onConnect != null) interest |= SelectionKey.OP_CONNECT;
+    if (socket.onRead != null) interest |= SelectionKey.OP_READ;
+    if (!socket.writes.isEmpty()) interest |= SelectionKey.OP_WRITE;
+    key.interestOps(interest);
+  }
+
+  private void callBack(LoxCallable callback, Object... arguments) {
+    if (!interpreter.runCallback(callback, Arrays.asList(arguments))) {
+      failed = true;
+    }
+  }
+
+  // Drops every pending callback and timer and closes every socket, e.g.
+  // when a pooled runtime is reset for its next caller.
+  void closeAll() {
+    epoch++;
+    queue.clear();
+    timers.clear();
+    if (selector == null) return;
+
+    for (SelectionKey key : selector.keys()) {
+      close(key.channel());
+    }
+  }
+
+  // Drops the callbacks and timers of a script that failed, and closes
+  // the sockets it opened. Connections that earlier scripts opened stay
+  // open for later ones, minus whatever this script asked of them.
+  void abandonRun() {
+    epoch++;
+    queue.clear();
+    timers.clear();
+    if (selector == null) return;
+
+    for (SelectionKey key : selector.keys()) {
+      Object handle = key.attachment();
+      int opened = handle instanceof Listener
+          ? ((Listener)handle).run
+          : ((Connection)handle).run;
+      if (opened == run) {
+        close(key.channel());
+      } else if (handle instanceof Connection) {
+        Connection socket = (Connection)handle;
+        socket.onConnect = null;
+        socket.onRead = null;
+        socket.writes.clear();
+        updateInterest(socket);
+      }
+    }
+  }
+
+  // Closes everything, the selector included, for a loop that won't run
+  // again.
+  void shutdown() {
+    closeAll();
+    if (selector == null) return;
+    try {
+      selector.close();
+    } catch (IOException error) {
+      // Nothing more to do with it either way.
+    }
+  }
+
+  private static void close(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException error) {
+      // Nothing more to do with it either way.
+    }
+  }
+
+  private static String message(Throwable error) {
+    String message = error.getMessage();
+    return message != null ? message : error.getClass().getSimpleName();
+  }
+
+  private void checkOwner(Interpreter interpreter) {
+    if (interpreter.globals != owner) {
+      throw new NativeError("Can't use another runtime's event loop.");
+    }
+  }
+
+  private static Connection checkConnection(Object value) {
+    if (value instanceof Connection) return (Connection)value;
+    throw new NativeError("Expected a connection.");
+  }
+
+  private static Listener checkListener(Object value) {
+    if (value instanceof Listener) return (Listener)value;
+    throw new NativeError("Expected a listener.");
+  }
+
+  private static final class Listener {
+    final ServerSocketChannel channel;
+    final LoxCallable callback;
+    // The script that opened it, as counted by startRun().
+    final int run;
+
+    Listener(ServerSocketChannel channel, LoxCallable callback, int run) {
+      this.channel = channel;
+      this.callback = callback;
+      this.run = run;
+    }
+
+    @Override
+    public String toString() {
+      return "<listener>";
+    }
+  }
+
+  // The callbacks and writes waiting on a socket. Only the loop thread
+  // touches them.
+  private static final class Connection {
+    final SocketChannel channel;
+    final int run;
+    final Queue<Write> writes = new ArrayDeque<>();
+    LoxCallable onConnect = null;
+    LoxCallable onRead = null;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8
+        .newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Bytes of a character split across reads.
+    private ByteBuffer leftover = ByteBuffer.allocate(0);
+
+    Connection(SocketChannel channel, int run) {
+      this.channel = channel;
+      this.run = run;
+    }
+
+    String decode(ByteBuffer bytes, boolean atEnd) {
+      ByteBuffer input = ByteBuffer.allocate(
+          leftover.remaining() + bytes.remaining());
+      input.put(leftover).put(bytes).flip();
+
+      CharBuffer chars = CharBuffer.allocate(input.remaining() + 1);
+      decoder.decode(input, chars, atEnd);
+      if (atEnd) decoder.flush(chars);
+      leftover = input.slice();
+      return chars.flip().toString();
+    }
+
+    @Override
+    public String toString() {
+      return "<connection>";
+    }
+  }
+
+  private static final class Write {
+    final ByteBuffer bytes;
+    final LoxCallable callback;
+
+    Write(ByteBuffer bytes, LoxCallable callback) {
+      this.bytes = bytes;
+      this.callback = callback;
+    }
+  }
+
+  private static final class Timer implements Comparable<Timer> {
+    final long deadline;
+    // Breaks ties so timers with the same deadline run in the order
+    // they were set.
+    final long sequence;
+    final LoxCallable callback;
+
+    Timer(long deadline, long sequence, LoxCallable callback) {
+      this.deadline = deadline;
+      this.sequence = sequence;
+      this.callback = callback;
+    }
+
+    @Override
+    public int compareTo(Timer other) {
+      int order = Long.compare(deadline - other.deadline, 0);
+      return order != 0 ? order : Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+// Caps on how much work a single LoxRuntime.run() may do, for scripts
+// that can't be trusted to finish. Zero means no limit. A step is one
+// loop iteration or one call, including calls that natives, tasks and
+// event loop callbacks make. Going over any limit stops the script
+// with a runtime error.
+//
+// maxAllocatedBytes is a budget for allocation, like the step budget,
+// and not a cap on live memory. It's shared by the whole script,
+// including parallelMap(), parallelReduce() and spawn() workers, which
+// take bytes from it as they go. It counts every byte of strings built
+// by concatenation or read by natives, plus the list slots, map entries
+// and buffers the natives create, and the scopes and closures the
+// script makes. Nothing is given back when garbage is collected, so a
+// long-running script that keeps building short-lived strings, or
+// entering blocks, will use it up eventually. Big allocations are
+// checked before they're made; scopes and closures at the next loop
+// iteration or call.
+public class ExecutionLimits {
+  final long maxSteps;
+  final long maxMillis;
+  final int maxCallDepth;
+  final long maxAllocatedBytes;
+
+  public ExecutionLimits(long maxSteps, long maxMillis, int maxCallDepth) {
+    this(maxSteps, maxMillis, maxCallDepth, 0);
+  }
+
+  public ExecutionLimits(long maxSteps, long maxMillis, int maxCallDepth,
+                         long maxAllocatedBytes) {
+    if (maxSteps < 0 || maxMillis < 0 || maxCallDepth < 0 ||
+        maxAllocatedBytes < 0) {
+      throw new IllegalArgumentException("Limits can't be negative.");
+    }
+
+    this.maxSteps = maxSteps;
+    this.maxMillis = maxMillis;
+    this.maxCallDepth = maxCallDepth;
+    this.maxAllocatedBytes = maxAllocatedBytes;
+  }
+}
@@ -19,10 +19,30 @@ abstract class Expr {
     R visitVariableExpr(Variable expr);
   }
 
+  static final int ASSIGN = 0;
+  static final int BINARY = 1;
+  static final int CALL = 2;
+  static final int GET = 3;
+  static final int GROUPING = 4;
+  static final int LITERAL = 5;
+  static final int LOGICAL = 6;
+  static final int SET = 7;
+  static final int SUPER = 8;
+  static final int THIS = 9;
+  static final int UNARY = 10;
+  static final int VARIABLE = 11;
+
+  final int kind;
+
+  Expr(int kind) {
+    this.kind = kind;
+  }
+
   // Nested Expr classes here...
 //> expr-assign
-  static class Assign extends Expr {
+  static final class Assign extends Expr {
     Assign(Token name, Expr value) {
+      super(ASSIGN);
       this.name = name;
       this.value = value;
     }
@@ -37,8 +57,9 @@ abstract class Expr {
   }
 //< expr-assign
 //> expr-binary
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
+      super(BINARY);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -55,8 +76,9 @@ abstract class Expr {
   }
 //< expr-binary
 //> expr-call
-  static class Call extends Expr {
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
+      super(CALL);
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
@@ -73,8 +95,9 @@ abstract class Expr {
   }
 //< expr-call
 //> expr-get
-  static class Get extends Expr {
+  static final class Get extends Expr {
     Get(Expr object, Token name) {
+      super(GET);
       this.object = object;
       this.name = name;
     }
@@ -89,8 +112,9 @@ abstract class Expr {
   }
 //< expr-get
 //> expr-grouping
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -103,8 +127,9 @@ abstract class Expr {
   }
 //< expr-grouping
 //> expr-literal
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -117,8 +142,9 @@ abstract class Expr {
   }
 //< expr-literal
 //> expr-logical
-  static class Logical extends Expr {
+  static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
+      super(LOGICAL);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -135,8 +161,9 @@ abstract class Expr {
   }
 //< expr-logical
 //> expr-set
-  static class Set extends Expr {
+  static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
+      super(SET);
       this.object = object;
       this.name = name;
       this.value = value;
@@ -153,8 +180,9 @@ abstract class Expr {
   }
 //< expr-set
 //> expr-super
-  static class Super extends Expr {
+  static final class Super extends Expr {
     Super(Token keyword, Token method) {
+      super(SUPER);
       this.keyword = keyword;
       this.method = method;
     }
@@ -169,8 +197,9 @@ abstract class Expr {
   }
 //< expr-super
 //> expr-this
-  static class This extends Expr {
+  static final class This extends Expr {
     This(Token keyword) {
+      super(THIS);
       this.keyword = keyword;
     }
 
@@ -183,8 +212,9 @@ abstract class Expr {
   }
 //< expr-this
 //> expr-unary
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
     Unary(Token operator, Expr right) {
+      super(UNARY);
       this.operator = operator;
       this.right = right;
     }
@@ -199,8 +229,9 @@ abstract class Expr {
   }
 //< expr-unary
 //> expr-variable
-  static class Variable extends Expr {
+  static final class Variable extends Expr {
     Variable(Token name) {
+      super(VARIABLE);
       this.name = name;
     }
 
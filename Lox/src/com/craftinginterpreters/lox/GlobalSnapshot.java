@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Writer;
+
+// Frozen globals from LoxRuntime.snapshot(). Forking is O(1): a fork
+// starts out sharing every binding and copies a global only when it
+// assigns to it, so a prelude can be run once and then reused by any
+// number of requests on any number of threads.
+//
+// Prelude functions see the globals of whichever fork calls them.
+// Variables a prelude function captured from an enclosing function, on
+// the other hand, are shared by every fork and can't be assigned.
+public class GlobalSnapshot {
+  private final Environment globals;
+  private final boolean fileAccess;
+  private final boolean asyncIo;
+
+  GlobalSnapshot(Environment globals, boolean fileAccess,
+                 boolean asyncIo) {
+    this.globals = globals;
+    this.fileAccess = fileAccess;
+    this.asyncIo = asyncIo;
+  }
+
+  public LoxRuntime fork(Writer out, Writer err) {
+    LoxRuntime runtime = new LoxRuntime(Environment.fork(globals), out,
+        Interpreter.DEFAULT_BUFFER_SIZE, err);
+    // The snapshot's event loop natives belong to the frozen runtime,
+    // whose loop never runs again, so each fork gets its own.
+    if (fileAccess) runtime.allowFileAccess();
+    if (asyncIo) runtime.allowAsyncIo();
+    return runtime;
+  }
+}
@@ -1,5 +1,10 @@
 package com.craftinginterpreters.lox;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 //> Functions import-array-list
 import java.util.ArrayList;
 //< Functions import-array-list
@@ -11,6 +16,7 @@ import java.util.List;
 //> Resolving and Binding import-map
 import java.util.Map;
 //< Resolving and Binding import-map
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.craftinginterpreters.lox.Expr.Assign;
 import com.craftinginterpreters.lox.Expr.Call;
@@ -27,23 +33,208 @@ import com.craftinginterpreters.lox.Stmt.Class;
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void>{
 	
-final Environment globals = new Environment();
-private Environment environment = globals;
+// -Dlox.dispatch=visitor falls back to double dispatch through
+// accept(), which is only useful for comparing the two.
+private static final boolean switchDispatch =
+    !"visitor".equals(System.getProperty("lox.dispatch"));
+
+static final int DEFAULT_BUFFER_SIZE = 8192;
+
+final Environment globals;
+private Environment environment;
+// Output from print statements. It's buffered, so whoever owns the
+// interpreter must call flush() before the output is needed.
+private final PrintWriter out;
+private final Sink sink;
+private final ErrorReporter reporter;
+
+// Budgets for the current run, used only when limits are set. Budgets
+// are checked at loop back-edges and calls, which any runaway script
+// has to pass through, and nowhere else.
+private ExecutionLimits limits = null;
+private long stepsLeft;
+// Once this interpreter has workers, the step budget moves here and
+// every thread takes steps from it in chunks, so they can't together
+// run more than the limit.
+private AtomicLong sharedSteps = null;
+private long deadline;
+private int timeCheckCountdown;
+private int callDepth;
+
+// What the current run has allocated, roughly. Counting is always on
+// since it's a handful of increments. Workers count their own and are
+// added in by absorb().
+private long strings;
+private long stringBytes;
+private long environments;
+private long closures;
+private long nativeBytes;
+// Bytes this thread may still allocate under the memory limit. Like the
+// step budget, it moves to sharedBytes once there are workers, and
+// every thread takes bytes from there in chunks, so the limit holds for
+// the whole script and not for each thread separately.
+private long bytesLeft = Long.MAX_VALUE;
+private AtomicLong sharedBytes = null;
+// Scopes and closures made since the last step. Blocks have no token to
+// report an error at, so they're charged at the next step instead,
+// which every loop iteration and call reaches.
+private long unchargedBytes;
+
+// The Lox-level call stack, kept only while a profiler is sampling it.
+private CallStack callStack = null;
+// Per-function and per-statement counters, kept only when asked for.
+private Counters counters = null;
+// Every task spawned by this interpreter or its workers.
+final TaskGroup taskGroup;
 
 Interpreter() {
-    globals.define("clock", new LoxCallable() {
-      @Override
-      public int arity() { return 0; }
+    this(new OutputStreamWriter(System.out));
+}
 
-      @Override
-      public Object call(Interpreter interpreter,
-                         List<Object> arguments) {
-        return (double)System.currentTimeMillis() / 1000.0;
+Interpreter(Writer out) {
+    this(out, DEFAULT_BUFFER_SIZE,
+        new ErrorReporter(new OutputStreamWriter(System.err)));
+}
+
+Interpreter(Writer out, int bufferSize, ErrorReporter reporter) {
+    this(new Environment(), out, bufferSize, reporter);
+    defineNatives();
+}
+
+// Runs against globals that are already set up, like a fork of a
+// snapshot.
+Interpreter(Environment globals, Writer out, int bufferSize,
+            ErrorReporter reporter) {
+    this.globals = globals;
+    this.environment = globals;
+    this.sink = new Sink(out);
+    this.out = new PrintWriter(new BufferedWriter(sink, bufferSize));
+    this.reporter = reporter;
+    this.taskGroup = new TaskGroup();
+}
+
+// A worker for running Lox functions on another thread. It shares
+// globals, output, error reporting and limits with its parent, but has
+// its own current scope and allocation counts, so it can run alongside
+// the parent's other workers. Steps come from a budget shared with the
+// parent and the other workers.
+private Interpreter(Interpreter parent) {
+    this.globals = parent.globals;
+    this.environment = parent.globals;
+    this.sink = parent.sink;
+    this.out = parent.out;
+    this.reporter = parent.reporter;
+    this.taskGroup = parent.taskGroup;
+    this.limits = parent.limits;
+    if (parent.limits != null && parent.limits.maxSteps > 0) {
+      if (parent.sharedSteps == null) {
+        parent.sharedSteps = new AtomicLong(Math.max(parent.stepsLeft, 0));
+        parent.stepsLeft = 0;
+      }
+      this.sharedSteps = parent.sharedSteps;
+      this.stepsLeft = 0;
+    } else {
+      this.stepsLeft = Long.MAX_VALUE;
+    }
+    if (parent.limits != null && parent.limits.maxAllocatedBytes > 0) {
+      if (parent.sharedBytes == null) {
+        parent.sharedBytes = new AtomicLong(parent.bytesLeft);
+        parent.bytesLeft = 0;
       }
+      this.sharedBytes = parent.sharedBytes;
+      this.bytesLeft = 0;
+    }
+    this.deadline = parent.deadline;
+    this.timeCheckCountdown = TIME_CHECK_INTERVAL;
+    this.callDepth = parent.callDepth;
+    // Counters and the profiler's stack are single-threaded, so workers
+    // go without. Say so rather than silently leaving their work out.
+    if (parent.counters != null) parent.counters.missedWorkers = true;
+    if (parent.callStack != null) parent.callStack.missedWorkers = true;
+}
+
+Interpreter worker() {
+    return new Interpreter(this);
+}
+
+// Adds what finished workers allocated to this interpreter's counts,
+// and returns any steps and bytes they still hold. Call it on the
+// parent's thread once they're all done.
+void absorb(Iterable<Interpreter> workers) {
+    for (Interpreter worker : workers) {
+      strings += worker.strings;
+      stringBytes += worker.stringBytes;
+      environments += worker.environments;
+      closures += worker.closures;
+      nativeBytes += worker.nativeBytes;
+      worker.returnBudget();
+    }
+}
+
+private void returnBudget() {
+    if (sharedSteps != null && stepsLeft > 0) {
+      sharedSteps.addAndGet(stepsLeft);
+      stepsLeft = 0;
+    }
+    if (sharedBytes != null && bytesLeft > 0) {
+      sharedBytes.addAndGet(bytesLeft);
+      bytesLeft = 0;
+    }
+}
+
+// Runs task on the current thread with the globals' fork, if any,
+// visible to Environment, as interpret() does for the main thread.
+// Afterwards, hands back any shared budget it holds for other threads.
+void runOnThisThread(Runnable task) {
+    Environment previousFork = null;
+    if (globals.isFork()) previousFork = Environment.enterFork(globals);
+    try {
+      task.run();
+    } finally {
+      if (globals.isFork()) Environment.exitFork(previousFork);
+      returnBudget();
+    }
+}
+
+// Runs a spawned task's function on the current thread. Nothing in Lox
+// is waiting to catch the task's runtime errors, so they're reported the
+// way interpret() reports them and the task's result is nil.
+Object runTask(LoxCallable function) {
+    Object[] result = new Object[1];
+    try {
+      runOnThisThread(() ->
+          result[0] = function.call(this, new ArrayList<>()));
+    } catch (RuntimeError error) {
+      out.flush();
+      reporter.runtimeError(error);
+    }
+    return result[0];
+}
+
+// Calls function for the event loop after the script has finished,
+// reporting a runtime error the way interpret() does. Returns false if
+// the call failed.
+boolean runCallback(LoxCallable function, List<Object> arguments) {
+    try {
+      runOnThisThread(() -> function.call(this, arguments));
+      return true;
+    } catch (RuntimeError error) {
+      out.flush();
+      reporter.runtimeError(error);
+      return false;
+    }
+}
 
+private void defineNatives() {
+    globals.define("clock", new NativeFunction(0) {
       @Override
-      public String toString() { return "<native fn>"; }
+      Object call0(Interpreter interpreter) {
+        return (double)System.currentTimeMillis() / 1000.0;
+      }
     });
+    Natives.define(globals);
+    Parallel.define(globals);
+    Tasks.define(globals);
 }
 	
 @Override
@@ -55,22 +246,224 @@ public Void visitExpressionStmt(Stmt.Expression stmt) {
 @Override
 public Void visitPrintStmt(Stmt.Print stmt) {
   Object value = evaluate(stmt.expression);
-  System.out.println(stringify(value));
+  out.println(stringify(value));
   return null;
 }
 
 void interpret(List<Stmt> statements) {
+    strings = 0;
+    stringBytes = 0;
+    environments = 0;
+    closures = 0;
+    nativeBytes = 0;
+    unchargedBytes = 0;
+    startBudget();
+    taskGroup.prune();
+    if (counters != null) counters.add(statements);
+    Environment previousFork = null;
+    if (globals.isFork()) previousFork = Environment.enterFork(globals);
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      // Keep printed output ahead of the error message.
+      out.flush();
+      reporter.runtimeError(error);
+    } finally {
+      if (globals.isFork()) Environment.exitFork(previousFork);
     }
 }
 
+void flush() {
+    out.flush();
+}
+
+void setLimits(ExecutionLimits limits) {
+    this.limits = limits;
+}
+
+void setCallStack(CallStack callStack) {
+    this.callStack = callStack;
+}
+
+void setCounters(Counters counters) {
+    this.counters = counters;
+}
+
+void enterFunction(Stmt.Function function) {
+    if (callStack != null) callStack.push(function);
+    if (counters != null) counters.enter(function);
+}
+
+void exitFunction() {
+    if (callStack != null) callStack.pop();
+    if (counters != null) counters.exit();
+}
+
+// Includes spawned tasks that have finished, joined or not. Ones still
+// running are left out.
+AllocationStats allocationStats() {
+    taskGroup.absorbFinished(this);
+    return new AllocationStats(strings, stringBytes, environments, closures,
+        nativeBytes);
+}
+
+// Charges bytes a native is about to allocate, or has just allocated if
+// it's small or its size wasn't known before. Throws, without charging
+// them, if that would go over the memory limit.
+void chargeNative(long bytes) {
+    if (!chargeBytes(bytes)) {
+      throw new NativeError("Exceeded the memory limit.");
+    }
+    nativeBytes += bytes;
+}
+
+// The most bytes a thread takes from a shared budget at a time, scaled
+// down near the end of the budget as with steps.
+private static final long BYTE_CHUNK = 64 * 1024;
+
+// Takes bytes from the allocation budget. See ExecutionLimits for what's
+// counted. Returns false, taking nothing, if there aren't enough left.
+private boolean chargeBytes(long bytes) {
+    if (bytes <= bytesLeft) {
+      bytesLeft -= bytes;
+      return true;
+    }
+    if (sharedBytes == null) return false;
+
+    long needed = bytes - bytesLeft;
+    for (;;) {
+      long left = sharedBytes.get();
+      if (left < needed) return false;
+
+      long extra = Math.min((left - needed) / 16, BYTE_CHUNK);
+      if (sharedBytes.compareAndSet(left, left - needed - extra)) {
+        bytesLeft = extra;
+        return true;
+      }
+    }
+}
+
+private void startBudget() {
+    bytesLeft = Long.MAX_VALUE;
+    sharedBytes = null;
+    if (limits == null) return;
+
+    stepsLeft = limits.maxSteps > 0 ? limits.maxSteps : Long.MAX_VALUE;
+    sharedSteps = null;
+    if (limits.maxAllocatedBytes > 0) bytesLeft = limits.maxAllocatedBytes;
+    deadline = System.nanoTime() + limits.maxMillis * 1000000L;
+    timeCheckCountdown = TIME_CHECK_INTERVAL;
+    callDepth = 0;
+}
+
+// Reading the clock costs more than the rest of a step, so only look at
+// it every so often.
+private static final int TIME_CHECK_INTERVAL = 1024;
+
+// The most steps a thread takes from a shared budget at a time. Near
+// the end of the budget it takes less, so steps held by one thread
+// don't run another out early.
+private static final long STEP_CHUNK = 1024;
+
+private void step(Token token) {
+    if (--stepsLeft < 0 && !takeSteps()) {
+      throw new RuntimeError(token, "Exceeded the step limit.");
+    }
+
+    if (unchargedBytes > 0) {
+      long bytes = unchargedBytes;
+      unchargedBytes = 0;
+      if (!chargeBytes(bytes)) {
+        throw new RuntimeError(token, "Exceeded the memory limit.");
+      }
+    }
+
+    if (taskGroup.cancelled) {
+      throw new RuntimeError(token, "Task was cancelled.");
+    }
+
+    if (limits.maxMillis > 0 && --timeCheckCountdown <= 0) {
+      timeCheckCountdown = TIME_CHECK_INTERVAL;
+      if (System.nanoTime() - deadline > 0) {
+        throw new RuntimeError(token, "Exceeded the time limit.");
+      }
+    }
+}
+
+// Refills stepsLeft from the shared budget, counting the step being
+// taken. Returns false once the budget is spent.
+private boolean takeSteps() {
+    if (sharedSteps == null) return false;
+
+    for (;;) {
+      long left = sharedSteps.get();
+      if (left <= 0) {
+        stepsLeft = 0;
+        return false;
+      }
+
+      long taken = Math.max(1, Math.min(left / 16, STEP_CHUNK));
+      if (sharedSteps.compareAndSet(left, left - taken)) {
+        stepsLeft = taken - 1;
+        return true;
+      }
+    }
+}
+
+// Sends later output to a different writer. Flushes what's pending first.
+void setOutput(Writer out) {
+    this.out.flush();
+    sink.target = out;
+}
+
+// Sits under the buffer so setOutput() can switch writers without
+// throwing the buffer away.
+private static class Sink extends Writer {
+  Writer target;
+
+  Sink(Writer target) {
+    this.target = target;
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length)
+      throws IOException {
+    target.write(chars, offset, length);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    target.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    target.close();
+  }
+}
+
 private void execute(Stmt stmt) {
+  if (counters != null) stmt.executions++;
+  if (!switchDispatch) {
     stmt.accept(this);
+    return;
+  }
+
+  switch (stmt.kind) {
+    case Stmt.BLOCK: visitBlockStmt((Stmt.Block)stmt); break;
+    case Stmt.CLASS: visitClassStmt((Stmt.Class)stmt); break;
+    case Stmt.EXPRESSION:
+      visitExpressionStmt((Stmt.Expression)stmt);
+      break;
+    case Stmt.FUNCTION: visitFunctionStmt((Stmt.Function)stmt); break;
+    case Stmt.IF: visitIfStmt((Stmt.If)stmt); break;
+    case Stmt.PRINT: visitPrintStmt((Stmt.Print)stmt); break;
+    case Stmt.RETURN: visitReturnStmt((Stmt.Return)stmt); break;
+    case Stmt.VAR: visitVarStmt((Stmt.Var)stmt); break;
+    case Stmt.WHILE: visitWhileStmt((Stmt.While)stmt); break;
+  }
 }
     
 @Override
@@ -84,7 +477,25 @@ public Object visitGroupingExpr(Expr.Grouping expr) {
 }
 
 private Object evaluate(Expr expr) {
-  return expr.accept(this);
+  if (!switchDispatch) return expr.accept(this);
+
+  switch (expr.kind) {
+    case Expr.ASSIGN: return visitAssignExpr((Expr.Assign)expr);
+    case Expr.BINARY: return visitBinaryExpr((Expr.Binary)expr);
+    case Expr.CALL: return visitCallExpr((Expr.Call)expr);
+    case Expr.GET: return visitGetExpr((Expr.Get)expr);
+    case Expr.GROUPING: return visitGroupingExpr((Expr.Grouping)expr);
+    case Expr.LITERAL: return visitLiteralExpr((Expr.Literal)expr);
+    case Expr.LOGICAL: return visitLogicalExpr((Expr.Logical)expr);
+    case Expr.SET: return visitSetExpr((Expr.Set)expr);
+    case Expr.SUPER: return visitSuperExpr((Expr.Super)expr);
+    case Expr.THIS: return visitThisExpr((Expr.This)expr);
+    case Expr.UNARY: return visitUnaryExpr((Expr.Unary)expr);
+    case Expr.VARIABLE: return visitVariableExpr((Expr.Variable)expr);
+  }
+
+  // Unreachable.
+  return null;
 }
 
 @Override
@@ -153,6 +564,16 @@ public Object visitBinaryExpr(Expr.Binary expr) {
       } // [plus]
 
       if (left instanceof String && right instanceof String) {
+        // Charge before building it, so a runaway doubling loop stops
+        // before it allocates the string that breaks the limit.
+        long bytes = AllocationStats.stringBytes(
+            (long)((String)left).length() + ((String)right).length());
+        if (!chargeBytes(bytes)) {
+          throw new RuntimeError(expr.operator,
+              "Exceeded the memory limit.");
+        }
+        strings++;
+        stringBytes += bytes;
         return (String)left + (String)right;
       }
 
@@ -202,13 +623,14 @@ throw new RuntimeError(operator, "Operands must be numbers.");
 void interpret(Expr expression) { 
     try {
       Object value = evaluate(expression);
-      System.out.println(stringify(value));
+      out.println(stringify(value));
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      out.flush();
+      reporter.runtimeError(error);
     }
   }
 
-private String stringify(Object object) {
+static String stringify(Object object) {
     if (object == null) return "nil";
 
     if (object instanceof Double) {
@@ -230,6 +652,8 @@ public Void visitBlockStmt(Stmt.Block stmt) {
 
 void executeBlock(List<Stmt> statements,
         Environment environment) {
+  environments++;
+  unchargedBytes += AllocationStats.ENVIRONMENT_BYTES;
   Environment previous = this.environment;
   try {
     this.environment = environment;
@@ -251,6 +675,8 @@ public Void visitClassStmt(Class stmt) {
 @Override
 public Void visitFunctionStmt(Stmt.Function stmt) {
   LoxFunction function = new LoxFunction(stmt, environment);
+  closures++;
+  unchargedBytes += AllocationStats.CLOSURE_BYTES;
   environment.define(stmt.name.lexeme, function);
   return null;
 }
@@ -288,6 +714,7 @@ public Void visitVarStmt(Stmt.Var stmt) {
 public Void visitWhileStmt(Stmt.While stmt) {
   while (isTruthy(evaluate(stmt.condition))) {
     execute(stmt.body);
+    if (limits != null) step(stmt.keyword);
   }
   return null;
 }
@@ -303,6 +730,10 @@ public Object visitAssignExpr(Expr.Assign expr) {
 @Override
 public Object visitCallExpr(Expr.Call expr) {
   Object callee = evaluate(expr.callee);
+  if (callee instanceof NativeFunction && limits == null &&
+      expr.arguments.size() <= 3) {
+    return callNative(expr, (NativeFunction)callee);
+  }
 
   List<Object> arguments = new ArrayList<>();
   for (Expr argument : expr.arguments) { 
@@ -316,12 +747,77 @@ public Object visitCallExpr(Expr.Call expr) {
   }
   
   LoxCallable function = (LoxCallable)callee;
-  if (arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren, "Expected " +
+  checkArity(expr.paren, function, arguments.size());
+  if (limits == null) return invoke(expr.paren, function, arguments);
+
+  // Lox functions count themselves, so calls from natives are counted
+  // too. This just points their errors at the call.
+  if (function instanceof LoxFunction) {
+    return ((LoxFunction)function).call(this, arguments, expr.paren);
+  }
+
+  enterCall(expr.paren);
+  try {
+    return invoke(expr.paren, function, arguments);
+  } finally {
+    exitCall();
+  }
+}
+
+// Counts a call against the limits as a step and a level of call depth,
+// which exitCall() gives back.
+void enterCall(Token token) {
+  if (limits == null) return;
+
+  step(token);
+  if (limits.maxCallDepth > 0 && callDepth >= limits.maxCallDepth) {
+    throw new RuntimeError(token, "Exceeded the call depth limit.");
+  }
+  callDepth++;
+}
+
+void exitCall() {
+  if (limits != null) callDepth--;
+}
+
+// Calls a native through its fixed-arity entry point, so no argument
+// list is built. Calls under limits take the general path instead, so
+// they're counted.
+private Object callNative(Expr.Call expr, NativeFunction function) {
+  List<Expr> arguments = expr.arguments;
+  int count = arguments.size();
+  Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+  Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+  Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+  checkArity(expr.paren, function, count);
+
+  try {
+    switch (count) {
+      case 0: return function.call0(this);
+      case 1: return function.call1(this, a);
+      case 2: return function.call2(this, a, b);
+      default: return function.call3(this, a, b, c);
+    }
+  } catch (NativeError error) {
+    throw new RuntimeError(expr.paren, error.getMessage());
+  }
+}
+
+private Object invoke(Token paren, LoxCallable function,
+                      List<Object> arguments) {
+  try {
+    return function.call(this, arguments);
+  } catch (NativeError error) {
+    throw new RuntimeError(paren, error.getMessage());
+  }
+}
+
+private void checkArity(Token paren, LoxCallable function, int count) {
+  if (count != function.arity()) {
+      throw new RuntimeError(paren, "Expected " +
           function.arity() + " arguments but got " +
-          arguments.size() + ".");
+          count + ".");
   }
-  return function.call(this, arguments);
 }
 
 @Override
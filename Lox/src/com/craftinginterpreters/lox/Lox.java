@@ -1,89 +1,155 @@
 package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  //> had-error
-  static boolean hadError = false;
-  //< had-error
-  //> Evaluating Expressions had-runtime-error-field
-  static boolean hadRuntimeError = false;
+  private static final LoxRuntime runtime = new LoxRuntime();
+  private static boolean printAst = false;
+  private static boolean timings = false;
+  private static String profilePath = null;
+  private static String countersPath = null;
+  private static Counters counters = null;
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64); 
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    runtime.allowFileAccess();
+    runtime.allowAsyncIo();
+    String script = null;
+    int port = -1;
+    for (String arg : args) {
+      if (arg.equals("--parallel-parse")) {
+        runtime.setParallelParse(ForkJoinPool.commonPool());
+      } else if (arg.startsWith("--ast-cache=")) {
+        runtime.setAstCache(
+            Paths.get(arg.substring("--ast-cache=".length())));
+      } else if (arg.equals("--print-ast")) {
+        printAst = true;
+      } else if (arg.equals("--timings")) {
+        timings = true;
+      } else if (arg.startsWith("--profile=")) {
+        profilePath = arg.substring("--profile=".length());
+      } else if (arg.startsWith("--counters=")) {
+        countersPath = arg.substring("--counters=".length());
+      } else if (arg.startsWith("--serve=")) {
+        port = parsePort(arg.substring("--serve=".length()));
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        usage();
+      }
+    }
+
+    if (countersPath != null) counters = runtime.startCounters();
+
+    if (port != -1) {
+      serve(port);
+    } else if (script != null) {
+      runFile(script);
     } else {
       runPrompt();
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: jlox [--parallel-parse] " +
+        "[--ast-cache=<dir>] [--print-ast] [--profile=<file>] " +
+        "[--counters=<file>] [--serve=<port>] [--timings] [script]");
+    System.exit(64);
+  }
+
+  private static int parsePort(String text) {
+    try {
+      int port = Integer.parseInt(text);
+      if (port >= 0 && port <= 65535) return port;
+    } catch (NumberFormatException error) {
+      // Fall through to the usage message.
+    }
+
+    usage();
+    return -1; // Unreachable.
+  }
+
+  private static void serve(int port) throws IOException {
+    LoxServer server = new LoxServer(port);
+    System.out.println("Listening on 127.0.0.1:" + server.port());
+    server.serve();
+  }
+
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
-    if (hadError) System.exit(65);
-    if (hadRuntimeError) System.exit(70);
+    String source = new String(bytes, Charset.defaultCharset());
+    if (printAst) {
+      printAst(source);
+    } else if (profilePath != null) {
+      runProfiled(source);
+    } else {
+      runtime.run(source);
+    }
+    runtime.flush();
+    writeCounters();
+    if (runtime.hadError()) System.exit(65);
+    if (runtime.hadRuntimeError()) System.exit(70);
   }
 
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
-    for (;;) { 
-      System.out.print("> ");
-      String line = reader.readLine();
-      if (line == null) break;
-      run(line);
-      hadError = false;
-    }
-  }
-
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
-
-    // Stop if there was a syntax error.
-    if (hadError) return;
-    interpreter.interpret(statements);
+    Repl repl = new Repl(runtime, reader, System.out);
+    repl.setTimings(timings);
+    repl.run();
+    writeCounters();
   }
 
-  static void error(int line, String message) {
-    report(line, "", message);
+  // Runs source while sampling the Lox call stack every millisecond, and
+  // writes the samples to profilePath in collapsed-stack format.
+  private static void runProfiled(String source) throws IOException {
+    Profiler profiler = runtime.startProfiler(1000);
+    try {
+      runtime.run(source);
+    } finally {
+      profiler.stop();
+      try (Writer out = Files.newBufferedWriter(Paths.get(profilePath))) {
+        profiler.writeCollapsed(out);
+      }
+      if (profiler.missedWorkers()) {
+        System.err.println("Warning: code run on parallelMap, " +
+            "parallelReduce or spawn workers wasn't sampled.");
+      }
+    }
   }
 
-  private static void report(int line, String where,
-                             String message) {
-    System.err.println(
-        "[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
-  }
+  // Writes the counters to countersPath, as JSON if it ends in ".json"
+  // and as a table otherwise.
+  private static void writeCounters() throws IOException {
+    if (counters == null) return;
 
-//< lox-error
-//> Parsing Expressions token-error
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+    try (Writer out = Files.newBufferedWriter(Paths.get(countersPath))) {
+      if (countersPath.endsWith(".json")) {
+        counters.writeJson(out);
+      } else {
+        counters.writeTable(out);
+      }
     }
   }
-//< Parsing Expressions token-error
-//> Evaluating Expressions runtime-error-method
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-        "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
+
+  // Dumps the syntax tree, one top-level statement per line, instead of
+  // running it.
+  private static void printAst(String source) throws IOException {
+    List<Stmt> statements = runtime.parse(source);
+    if (runtime.hadError()) return;
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+    new AstWriter(out).print(statements);
+    out.flush();
   }
-}
\ No newline at end of file
+}
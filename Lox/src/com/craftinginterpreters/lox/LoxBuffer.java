@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+// A fixed-size array of doubles kept outside the Java heap, so large
+// numeric data costs the garbage collector nothing but this one small
+// object. Slices share memory with the buffer they came from, which is
+// freed once it and every slice of it are garbage.
+class LoxBuffer {
+  // Direct buffers are indexed by int, in bytes.
+  static final int MAX_SIZE = Integer.MAX_VALUE / Double.BYTES;
+
+  private final DoubleBuffer data;
+
+  LoxBuffer(int size) {
+    this(ByteBuffer.allocateDirect(size * Double.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asDoubleBuffer());
+  }
+
+  private LoxBuffer(DoubleBuffer data) {
+    this.data = data;
+  }
+
+  int size() {
+    return data.capacity();
+  }
+
+  double get(int index) {
+    return data.get(index);
+  }
+
+  void set(int index, double value) {
+    data.put(index, value);
+  }
+
+  void fill(double value) {
+    for (int i = 0; i < data.capacity(); i++) {
+      data.put(i, value);
+    }
+  }
+
+  double sum() {
+    double sum = 0;
+    for (int i = 0; i < data.capacity(); i++) {
+      sum += data.get(i);
+    }
+    return sum;
+  }
+
+  // The elements from start up to but not including end.
+  LoxBuffer slice(int start, int end) {
+    DoubleBuffer view = data.duplicate();
+    view.position(start);
+    view.limit(end);
+    return new LoxBuffer(view.slice());
+  }
+
+  @Override
+  public String toString() {
+    return "<buffer " + size() + ">";
+  }
+}
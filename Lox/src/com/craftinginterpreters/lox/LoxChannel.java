@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+// A queue for handing values between tasks. With no capacity, send()
+// waits until another task receives. Otherwise it only waits while the
+// channel is full. Both block just the virtual thread the task runs on.
+class LoxChannel {
+  // Blocking queues don't take null, so nil travels as this.
+  private static final Object NIL = new Object();
+
+  private final BlockingQueue<Object> queue;
+
+  LoxChannel(int capacity) {
+    queue = capacity == 0
+        ? new SynchronousQueue<>()
+        : new ArrayBlockingQueue<>(capacity);
+  }
+
+  void send(Object value) throws InterruptedException {
+    // Whoever receives a function can call it, so its closure must be
+    // safe to use from another thread.
+    Environment.shareValue(value);
+    queue.put(value == null ? NIL : value);
+  }
+
+  Object receive() throws InterruptedException {
+    Object value = queue.take();
+    return value == NIL ? null : value;
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events for the interpreter, so a recording can line up
+// what a script was doing with GC and JIT activity. When no recording is
+// running, begin(), end() and shouldCommit() are cheap and the event
+// objects don't escape, so the JIT can drop them.
+class LoxEvents {
+  private LoxEvents() {}
+
+  @Name("lox.Scan")
+  @Label("Scan")
+  @Category("Lox")
+  @Description("Turning source into tokens")
+  @StackTrace(false)
+  static final class Scan extends Event {
+    @Label("Source Length")
+    int sourceLength;
+
+    @Label("Tokens")
+    int tokens;
+  }
+
+  @Name("lox.Parse")
+  @Label("Parse")
+  @Category("Lox")
+  @Description("Turning tokens into statements")
+  @StackTrace(false)
+  static final class Parse extends Event {
+    @Label("Statements")
+    int statements;
+
+    @Label("Parallel")
+    boolean parallel;
+  }
+
+  @Name("lox.Execute")
+  @Label("Execute")
+  @Category("Lox")
+  @Description("Running parsed statements")
+  @StackTrace(false)
+  static final class Execute extends Event {
+    @Label("Statements")
+    int statements;
+
+    @Label("Cached")
+    @Description("Whether the statements came from the AST cache")
+    boolean cached;
+  }
+
+  // Only calls slower than the threshold are recorded. A recording can
+  // change it, e.g. with "lox.FunctionCall#threshold=1 ms".
+  @Name("lox.FunctionCall")
+  @Label("Function Call")
+  @Category("Lox")
+  @Description("A Lox function call that took longer than the threshold")
+  @Threshold("20 ms")
+  @StackTrace(false)
+  static final class FunctionCall extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("lox.RuntimeError")
+  @Label("Runtime Error")
+  @Category("Lox")
+  @Description("A runtime error that stopped a script")
+  @StackTrace(false)
+  static final class RuntimeError extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+}
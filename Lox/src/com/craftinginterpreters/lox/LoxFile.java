@@ -0,0 +1,157 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A file opened for reading through a memory-mapped window that slides
+// along it, so files bigger than the heap, or than one mapping, can be
+// read in bounded memory. Reading a line only finds its bounds; nothing
+// is copied into a String until the script asks for the text.
+class LoxFile {
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long size;
+  private MappedByteBuffer window = null;
+  private long windowStart = 0;
+  private long position = 0;
+
+  // The current line, without its line terminator.
+  private long lineStart = -1;
+  private int lineLength = 0;
+
+  private byte[] scratch = new byte[256];
+
+  LoxFile(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    size = channel.size();
+  }
+
+  // Moves to the next line. Returns false at the end of the file.
+  boolean nextLine() throws IOException {
+    if (position >= size) {
+      lineStart = -1;
+      return false;
+    }
+
+    long end = indexOf((byte)'\n', position);
+    if (end == -1) end = size;
+    if (end - position > WINDOW_SIZE) throw new IOException("Line too long.");
+
+    lineStart = position;
+    lineLength = (int)(end - position);
+    position = end + 1;
+    if (lineLength > 0 && byteAt(lineStart + lineLength - 1) == '\r') {
+      lineLength--;
+    }
+    return true;
+  }
+
+  String line(Interpreter interpreter) throws IOException {
+    checkLine();
+    return decode(interpreter, lineStart, lineLength);
+  }
+
+  boolean lineContains(String text) throws IOException {
+    checkLine();
+    byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+    map(lineStart, lineLength);
+    int start = (int)(lineStart - windowStart);
+    for (int i = 0; i + needle.length <= lineLength; i++) {
+      int j = 0;
+      while (j < needle.length && window.get(start + i + j) == needle[j]) {
+        j++;
+      }
+      if (j == needle.length) return true;
+    }
+    return false;
+  }
+
+  // Reads up to maxBytes from where the last line or chunk ended,
+  // stopping short rather than splitting a UTF-8 character. A chunk is
+  // never longer than one window, so it can be shorter than asked for
+  // before the end of the file. Returns null at the end of the file.
+  String readChunk(Interpreter interpreter, int maxBytes)
+      throws IOException {
+    if (maxBytes <= 0) {
+      throw new NativeError("Chunk size must be positive.");
+    }
+    if (position >= size) return null;
+
+    int length = (int)Math.min(Math.min(maxBytes, WINDOW_SIZE),
+        size - position);
+    if (position + length < size) {
+      // Back up over continuation bytes to the start of a character.
+      int end = length;
+      while (end > 0 && (byteAt(position + end) & 0xc0) == 0x80) end--;
+      if (end > 0) length = end;
+    }
+
+    String chunk = decode(interpreter, position, length);
+    position += length;
+    lineStart = -1;
+    return chunk;
+  }
+
+  void close() throws IOException {
+    channel.close();
+    window = null;
+  }
+
+  private void checkLine() throws IOException {
+    if (lineStart == -1) throw new IOException("No current line.");
+  }
+
+  // Charges the string to interpreter before copying anything, since
+  // length can be as much as a window.
+  private String decode(Interpreter interpreter, long start, int length)
+      throws IOException {
+    interpreter.chargeNative(AllocationStats.stringBytes(length));
+    map(start, length);
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    window.position((int)(start - windowStart));
+    window.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    map(offset, 1);
+    return window.get((int)(offset - windowStart));
+  }
+
+  private long indexOf(byte target, long from) throws IOException {
+    while (from < size) {
+      map(from, 1);
+      int limit = window.limit();
+      for (int i = (int)(from - windowStart); i < limit; i++) {
+        if (window.get(i) == target) return windowStart + i;
+      }
+      from = windowStart + limit;
+    }
+    return -1;
+  }
+
+  // Makes sure the bytes from start to start + length are in the window.
+  private void map(long start, int length) throws IOException {
+    if (!channel.isOpen()) throw new IOException("File is closed.");
+    if (window != null && start >= windowStart &&
+        start + length <= windowStart + window.limit()) {
+      return;
+    }
+
+    windowStart = start;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+        Math.min(WINDOW_SIZE, size - start));
+  }
+
+  @Override
+  public String toString() {
+    return "<file>";
+  }
+}
@@ -10,24 +10,56 @@ class LoxFunction implements LoxCallable {
     this.closure = closure;
   }
   
+  Environment closure() {
+    return closure;
+  }
+
   @Override
   public int arity() {
     return declaration.params.size();
   }
 
+// Natives like transform() and parallelMap() call functions this way,
+// and so do tasks and event loop callbacks. The call still counts
+// against the limits, with errors reported at the declaration.
 @Override
 public Object call(Interpreter interpreter,
                    List<Object> arguments) {
+  return call(interpreter, arguments, declaration.name);
+}
+
+Object call(Interpreter interpreter, List<Object> arguments,
+            Token caller) {
+  interpreter.enterCall(caller);
+  try {
+    return run(interpreter, arguments);
+  } finally {
+    interpreter.exitCall();
+  }
+}
+
+private Object run(Interpreter interpreter, List<Object> arguments) {
   Environment environment = new Environment(closure);
   for (int i = 0; i < declaration.params.size(); i++) {
     environment.define(declaration.params.get(i).lexeme,
         arguments.get(i));
   }
   
+  LoxEvents.FunctionCall event = new LoxEvents.FunctionCall();
+  event.begin();
+  interpreter.enterFunction(declaration);
   try {
       interpreter.executeBlock(declaration.body, environment);
   } catch (Return returnValue) {
       return returnValue.value;
+  } finally {
+      interpreter.exitFunction();
+      event.end();
+      if (event.shouldCommit()) {
+        event.function = declaration.name.lexeme;
+        event.line = declaration.name.line;
+        event.commit();
+      }
   }
   return null;
 }
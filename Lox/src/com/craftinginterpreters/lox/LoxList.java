@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A growable list. While it holds only numbers they're kept unboxed in a
+// double[]; the first value of any other type widens it to an Object[]
+// for good.
+class LoxList {
+  private double[] numbers = new double[8];
+  private Object[] values = null;
+  private int size = 0;
+
+  int size() {
+    return size;
+  }
+
+  Object get(int index) {
+    if (values != null) return values[index];
+    return numbers[index];
+  }
+
+  void add(Object value) {
+    if (values == null && value instanceof Double) {
+      if (size == numbers.length) {
+        numbers = Arrays.copyOf(numbers, size * 2);
+      }
+      numbers[size++] = (double)value;
+      return;
+    }
+
+    if (values == null) widen();
+    if (size == values.length) values = Arrays.copyOf(values, size * 2);
+    values[size++] = value;
+  }
+
+  void set(int index, Object value) {
+    if (values == null && value instanceof Double) {
+      numbers[index] = (double)value;
+      return;
+    }
+
+    if (values == null) widen();
+    values[index] = value;
+  }
+
+  Object removeLast() {
+    Object value = get(--size);
+    if (values != null) values[size] = null; // Let it be collected.
+    return value;
+  }
+
+  private void widen() {
+    values = new Object[numbers.length];
+    for (int i = 0; i < size; i++) {
+      values[i] = numbers[i];
+    }
+    numbers = null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(Interpreter.stringify(get(i)));
+    }
+    return builder.append("]").toString();
+  }
+}
@@ -0,0 +1,189 @@
+package com.craftinginterpreters.lox;
+
+// A hash map with linear probing over flat arrays, so there are no entry
+// objects. Keys compare the way == does in Lox, i.e. with equals(), and
+// strings and numbers get their own lookup paths so the common cases
+// don't go through a virtual equals() call. Removal shifts later entries
+// back instead of leaving tombstones.
+class LoxMap {
+  // Stands in for a nil key, since null marks an empty slot.
+  private static final Object NIL = new Object();
+
+  private Object[] keys = new Object[8];
+  private Object[] values = new Object[8];
+  private int[] hashes = new int[8];
+  private int size = 0;
+
+  int size() {
+    return size;
+  }
+
+  Object get(Object key) {
+    int slot = find(key);
+    return slot >= 0 ? values[slot] : null;
+  }
+
+  boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  void put(Object key, Object value) {
+    int slot = find(key);
+    if (slot >= 0) {
+      values[slot] = value;
+      return;
+    }
+
+    if ((size + 1) * 3 > keys.length * 2) {
+      grow();
+      slot = find(key);
+    }
+
+    slot = ~slot;
+    keys[slot] = key == null ? NIL : key;
+    values[slot] = value;
+    hashes[slot] = hash(key);
+    size++;
+  }
+
+  Object remove(Object key) {
+    int slot = find(key);
+    if (slot < 0) return null;
+
+    Object value = values[slot];
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int next = (slot + 1) & mask; keys[next] != null;
+         next = (next + 1) & mask) {
+      // An entry can fill the hole if the hole is no further from the
+      // entry's home slot than where the entry is now.
+      int home = hashes[next] & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        hashes[hole] = hashes[next];
+        hole = next;
+      }
+    }
+
+    keys[hole] = null;
+    values[hole] = null;
+    size--;
+    return value;
+  }
+
+  // Iteration walks the slots directly: start from first() and keep
+  // calling next() until it returns -1.
+  int first() {
+    return next(-1);
+  }
+
+  int next(int slot) {
+    for (int i = slot + 1; i < keys.length; i++) {
+      if (keys[i] != null) return i;
+    }
+    return -1;
+  }
+
+  Object keyAt(int slot) {
+    Object key = keys[slot];
+    return key == NIL ? null : key;
+  }
+
+  Object valueAt(int slot) {
+    return values[slot];
+  }
+
+  // Returns the key's slot, or the bitwise complement of the empty slot
+  // where it would go.
+  private int find(Object key) {
+    if (key instanceof String) return findString((String)key);
+    if (key instanceof Double) return findNumber((double)key);
+    return findOther(key == null ? NIL : key);
+  }
+
+  private int findString(String key) {
+    int hash = spread(key.hashCode());
+    int mask = keys.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      Object candidate = keys[slot];
+      if (candidate == null) return ~slot;
+      if (hashes[slot] == hash &&
+          (candidate == key || key.equals(candidate))) {
+        return slot;
+      }
+    }
+  }
+
+  private int findNumber(double key) {
+    // Double.equals() compares bits, so NaN finds NaN and 0 and -0 are
+    // different keys, the same as == in Lox.
+    long bits = Double.doubleToLongBits(key);
+    int hash = spread(Long.hashCode(bits));
+    int mask = keys.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      Object candidate = keys[slot];
+      if (candidate == null) return ~slot;
+      if (hashes[slot] == hash && candidate instanceof Double &&
+          Double.doubleToLongBits((Double)candidate) == bits) {
+        return slot;
+      }
+    }
+  }
+
+  private int findOther(Object key) {
+    int hash = spread(key.hashCode());
+    int mask = keys.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      Object candidate = keys[slot];
+      if (candidate == null) return ~slot;
+      if (hashes[slot] == hash && key.equals(candidate)) return slot;
+    }
+  }
+
+  // Must agree with the find methods.
+  private static int hash(Object key) {
+    if (key instanceof Double) {
+      return spread(Long.hashCode(Double.doubleToLongBits((Double)key)));
+    }
+    return spread((key == null ? NIL : key).hashCode());
+  }
+
+  // Linear probing needs the low bits to vary, which small integral
+  // doubles and short strings don't give on their own.
+  private static int spread(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private void grow() {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+    keys = new Object[oldKeys.length * 2];
+    values = new Object[oldKeys.length * 2];
+    hashes = new int[oldKeys.length * 2];
+
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == null) continue;
+
+      int slot = oldHashes[i] & mask;
+      while (keys[slot] != null) slot = (slot + 1) & mask;
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+      hashes[slot] = oldHashes[i];
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int slot = first(); slot != -1; slot = next(slot)) {
+      if (builder.length() > 1) builder.append(", ");
+      builder.append(Interpreter.stringify(keyAt(slot))).append(": ")
+          .append(Interpreter.stringify(valueAt(slot)));
+    }
+    return builder.append("}").toString();
+  }
+}
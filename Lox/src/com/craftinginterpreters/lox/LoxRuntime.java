@@ -0,0 +1,269 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// An independent Lox world with its own globals, output and error state.
+// Runtimes share no mutable state, so a server can give each script its
+// own runtime and run them concurrently on a thread pool. A single
+// runtime must only be used by one thread at a time.
+public class LoxRuntime {
+  private final ErrorReporter reporter;
+  private final Interpreter interpreter;
+  private ForkJoinPool parsePool = null;
+  private AstCache astCache = null;
+  private boolean snapshotted = false;
+  private EventLoop eventLoop = null;
+  private boolean fileAccess = false;
+  // What track() saw, for reset() to go back to.
+  private boolean trackedFileAccess = false;
+  private EventLoop trackedEventLoop = null;
+
+  // Prints to the process's stdout and stderr.
+  public LoxRuntime() {
+    this(new OutputStreamWriter(System.out),
+        new OutputStreamWriter(System.err));
+  }
+
+  // Sends print output to out and error messages to err. Output is
+  // buffered until flush().
+  public LoxRuntime(Writer out, Writer err) {
+    this(out, Interpreter.DEFAULT_BUFFER_SIZE, err);
+  }
+
+  public LoxRuntime(Writer out, int bufferSize, Writer err) {
+    reporter = new ErrorReporter(err);
+    interpreter = new Interpreter(out, bufferSize, reporter);
+  }
+
+  // Runs against an existing set of globals, like a fork of a snapshot.
+  LoxRuntime(Environment globals, Writer out, int bufferSize, Writer err) {
+    reporter = new ErrorReporter(err);
+    interpreter = new Interpreter(globals, out, bufferSize, reporter);
+  }
+
+  // Parses top-level declarations in parallel on pool. Pass null to go
+  // back to sequential parsing.
+  public void setParallelParse(ForkJoinPool pool) {
+    parsePool = pool;
+  }
+
+  // Reuses parsed programs stored in directory. Pass null to disable.
+  public void setAstCache(Path directory) {
+    astCache = directory == null ? null : new AstCache(directory);
+  }
+
+  // Defines the natives that read local files. Off by default, since a
+  // runtime may be running scripts from someone else.
+  public void allowFileAccess() {
+    if (fileAccess) return;
+    fileAccess = true;
+    Natives.defineFileAccess(interpreter.globals);
+    if (eventLoop != null) eventLoop.defineFileAccess(interpreter.globals);
+  }
+
+  // Defines the non-blocking socket and timer natives, plus readFile()
+  // if file access is allowed too. Each run() then keeps running their
+  // callbacks until none are pending. Off by default, like file access.
+  public void allowAsyncIo() {
+    if (eventLoop != null) return;
+    eventLoop = new EventLoop();
+    eventLoop.define(interpreter.globals);
+    if (fileAccess) eventLoop.defineFileAccess(interpreter.globals);
+  }
+
+  // Applies limits to each later run(). Pass null to lift them.
+  public void setLimits(ExecutionLimits limits) {
+    interpreter.setLimits(limits);
+  }
+
+  // What the latest run() allocated.
+  public AllocationStats allocationStats() {
+    return interpreter.allocationStats();
+  }
+
+  // Starts sampling the Lox call stack every intervalMicros. Stop the
+  // returned profiler before reading its samples.
+  Profiler startProfiler(long intervalMicros) {
+    CallStack stack = new CallStack();
+    interpreter.setCallStack(stack);
+    return new Profiler(stack, intervalMicros);
+  }
+
+  // Starts counting calls, function time and statement executions for
+  // every later run().
+  Counters startCounters() {
+    Counters counters = new Counters();
+    interpreter.setCounters(counters);
+    return counters;
+  }
+
+  // Scans, parses and runs source against this runtime's globals, so
+  // declarations from earlier calls are still visible.
+  public void run(String source) {
+    if (snapshotted) {
+      throw new IllegalStateException(
+          "Runtime was snapshotted; run its forks instead.");
+    }
+
+    List<Stmt> statements = null;
+    if (astCache != null) statements = astCache.load(source);
+    boolean cached = statements != null;
+
+    if (statements == null) {
+      statements = parse(source);
+
+      // Stop if there was a syntax error.
+      if (reporter.hadError) return;
+      if (astCache != null) astCache.store(source, statements);
+    }
+
+    execute(statements, cached);
+  }
+
+  // Parses one input typed at the REPL. Returns null, reporting nothing,
+  // if the input stops partway through, e.g. inside a block, so the
+  // caller can read another line and try again with both. Otherwise
+  // reports any syntax errors as parse() does.
+  List<Stmt> parseIfFinished(String source) {
+    ErrorReporter quiet = new ErrorReporter(Writer.nullWriter());
+    List<Token> tokens = new Scanner(source, quiet).scanTokens();
+    List<Stmt> statements = new Parser(tokens, quiet).parse();
+    if (quiet.unfinished) return null;
+    if (!quiet.hadError) return statements;
+
+    // Parse again to report the errors where they belong.
+    return parse(source);
+  }
+
+  // Runs statements that parse() returned.
+  void execute(List<Stmt> statements, boolean cached) {
+    if (snapshotted) {
+      throw new IllegalStateException(
+          "Runtime was snapshotted; run its forks instead.");
+    }
+
+    LoxEvents.Execute event = new LoxEvents.Execute();
+    event.begin();
+    if (eventLoop != null) eventLoop.startRun();
+    interpreter.interpret(statements);
+    if (eventLoop != null) {
+      // A failed script's callbacks never run, not even on a later
+      // run(), and the sockets it opened are closed. Ones from earlier
+      // runs, e.g. earlier lines at the REPL, stay open.
+      if (reporter.hadRuntimeError) {
+        eventLoop.abandonRun();
+      } else {
+        eventLoop.run(interpreter);
+      }
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.statements = statements.size();
+      event.cached = cached;
+      event.commit();
+    }
+  }
+
+  // Freezes the globals as they are now, typically after running a
+  // prelude, so they can be forked for each request. The runtime itself
+  // can't run anything afterwards.
+  public GlobalSnapshot snapshot() {
+    flush();
+    interpreter.globals.freeze();
+    snapshotted = true;
+    return new GlobalSnapshot(interpreter.globals, fileAccess,
+        eventLoop != null);
+  }
+
+  public void flush() {
+    interpreter.flush();
+  }
+
+  public boolean hadError() {
+    return reporter.hadError;
+  }
+
+  public boolean hadRuntimeError() {
+    return reporter.hadRuntimeError;
+  }
+
+  // Forgets earlier errors, e.g. between lines in a REPL.
+  public void clearErrors() {
+    reporter.hadError = false;
+    reporter.hadRuntimeError = false;
+    reporter.unfinished = false;
+  }
+
+  // Redirects print output and error messages, e.g. when a pooled
+  // runtime is handed to a new request.
+  void redirect(Writer out, Writer err) {
+    interpreter.setOutput(out);
+    reporter.setOutput(err);
+  }
+
+  // Makes the current globals the state that reset() returns to.
+  void track() {
+    interpreter.globals.track();
+    trackedFileAccess = fileAccess;
+    trackedEventLoop = eventLoop;
+  }
+
+  // Cancels tasks the scripts spawned and waits up to timeoutMillis for
+  // them to stop. Returns false if some are still running, e.g. in a
+  // loop with no step limit to stop them, and so could still change the
+  // globals or print.
+  boolean stopTasks(long timeoutMillis) {
+    return interpreter.taskGroup.cancel(timeoutMillis);
+  }
+
+  // Undoes every global change since track() and forgets errors. Call
+  // stopTasks() first, or a task may change them again afterwards.
+  void reset() {
+    interpreter.globals.rollback();
+    // Rolling back removed the natives that allowFileAccess() and
+    // allowAsyncIo() defined since track(), so the next caller must be
+    // able to allow them again. The last caller's sockets and timers
+    // go either way.
+    if (eventLoop != null) {
+      if (eventLoop == trackedEventLoop) {
+        eventLoop.closeAll();
+      } else {
+        eventLoop.shutdown();
+      }
+    }
+    eventLoop = trackedEventLoop;
+    fileAccess = trackedFileAccess;
+    clearErrors();
+  }
+
+  List<Stmt> parse(String source) {
+    LoxEvents.Scan scan = new LoxEvents.Scan();
+    scan.begin();
+    Scanner scanner = new Scanner(source, reporter);
+    List<Token> tokens = scanner.scanTokens();
+    scan.end();
+    if (scan.shouldCommit()) {
+      scan.sourceLength = source.length();
+      scan.tokens = tokens.size();
+      scan.commit();
+    }
+
+    LoxEvents.Parse parse = new LoxEvents.Parse();
+    parse.begin();
+    Parser parser = new Parser(tokens, reporter);
+    List<Stmt> statements = parsePool != null
+        ? parser.parseParallel(parsePool)
+        : parser.parse();
+    parse.end();
+    if (parse.shouldCommit()) {
+      parse.statements = statements.size();
+      parse.parallel = parsePool != null;
+      parse.commit();
+    }
+    return statements;
+  }
+}
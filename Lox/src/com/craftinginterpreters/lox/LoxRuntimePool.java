@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Keeps constructed runtimes around so short scripts don't each pay for a
+// fresh interpreter and globals. A released runtime is rolled back to its
+// initial globals, which only touches the names the script changed.
+//
+// Safe to share between threads. Each acquired runtime belongs to the
+// caller until it is released.
+public class LoxRuntimePool {
+  private static final long STOP_TASKS_MILLIS = 100;
+
+  private final BlockingQueue<LoxRuntime> idle;
+
+  // Creates size runtimes up front and keeps at most that many idle.
+  public LoxRuntimePool(int size) {
+    idle = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      idle.add(create());
+    }
+  }
+
+  // Returns a runtime printing to out and err, creating one if the pool
+  // is empty.
+  public LoxRuntime acquire(Writer out, Writer err) {
+    LoxRuntime runtime = idle.poll();
+    if (runtime == null) runtime = create();
+
+    runtime.redirect(out, err);
+    return runtime;
+  }
+
+  // Flushes and resets a runtime from acquire(), then keeps it for a
+  // later acquire() if there's room. Tasks the script spawned are
+  // cancelled first. If any won't stop, the runtime is dropped instead,
+  // since they would carry on into the next caller's script.
+  public void release(LoxRuntime runtime) {
+    runtime.flush();
+    // Whatever the cancelled tasks print or report goes nowhere, not to
+    // the caller who has already finished with the runtime.
+    runtime.redirect(Writer.nullWriter(), Writer.nullWriter());
+    if (!runtime.stopTasks(STOP_TASKS_MILLIS)) return;
+    runtime.reset();
+    idle.offer(runtime);
+  }
+
+  private static LoxRuntime create() {
+    LoxRuntime runtime = new LoxRuntime(Writer.nullWriter(),
+        Writer.nullWriter());
+    runtime.track();
+    return runtime;
+  }
+}
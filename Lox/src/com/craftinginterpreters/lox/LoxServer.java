@@ -0,0 +1,124 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+// Runs scripts sent over a loopback socket, so many short scripts can
+// share one warm JVM instead of each paying for startup.
+//
+// A client may send any number of requests on a connection. A request is
+// a 4-byte big-endian length followed by that many bytes of UTF-8 source.
+// Each response is, in order, the exit code jlox would have used (0, 65
+// or 70) as a 4-byte int, then the script's stdout and stderr, each as a
+// length-prefixed UTF-8 string. Every connection gets its own thread and
+// every script a LoxRuntime of its own, reset from a pool.
+class LoxServer {
+  private static final int MAX_SCRIPT_SIZE = 16 * 1024 * 1024;
+  private static final int POOL_SIZE = 64;
+  // Scripts come from clients, so a runaway one mustn't hold a pooled
+  // runtime and its thread forever, or allocate without bound.
+  private static final ExecutionLimits LIMITS =
+      new ExecutionLimits(0, 10_000, 2_000, 1024L * 1024 * 1024);
+
+  private final ServerSocket socket;
+  private final LoxRuntimePool pool = new LoxRuntimePool(POOL_SIZE);
+
+  LoxServer(int port) throws IOException {
+    socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+  }
+
+  int port() {
+    return socket.getLocalPort();
+  }
+
+  void serve() throws IOException {
+    ExecutorService executor = Tasks.newThreadPerTaskExecutor();
+    try {
+      for (;;) {
+        Socket client = socket.accept();
+        executor.execute(() -> handle(client));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void handle(Socket client) {
+    try (client;
+         DataInputStream in = new DataInputStream(
+             new BufferedInputStream(client.getInputStream()));
+         DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(client.getOutputStream()))) {
+      for (;;) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException error) {
+          return; // The client is done.
+        }
+
+        // A bad frame means we've lost sync with the client.
+        if (length < 0 || length > MAX_SCRIPT_SIZE) return;
+
+        byte[] source = new byte[length];
+        in.readFully(source);
+        execute(new String(source, StandardCharsets.UTF_8), out);
+        out.flush();
+      }
+    } catch (IOException error) {
+      // The client went away. Nothing else depends on this connection.
+    }
+  }
+
+  private void execute(String source, DataOutputStream response)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    StringWriter err = new StringWriter();
+    LoxRuntime runtime = pool.acquire(out, err);
+
+    int status = 0;
+    boolean reusable = true;
+    try {
+      runtime.setLimits(LIMITS);
+      runtime.run(source);
+      runtime.flush();
+      if (runtime.hadError()) status = 65;
+      if (runtime.hadRuntimeError()) status = 70;
+    } catch (StackOverflowError error) {
+      // A runaway script shouldn't take the server down with it.
+      runtime.flush();
+      err.write("Stack overflow.\n");
+      status = 70;
+    } catch (Throwable error) {
+      // Whatever went wrong, the client still gets a reply. The runtime
+      // may have been left mid-statement, so don't hand it out again.
+      reusable = false;
+      runtime.flush();
+      err.write("Internal error: " + error + "\n");
+      status = 70;
+    } finally {
+      if (reusable) pool.release(runtime);
+    }
+
+    response.writeInt(status);
+    writeString(response, out.toString());
+    writeString(response, err.toString());
+  }
+
+  private static void writeString(DataOutputStream out, String string)
+      throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// A function started by spawn(). It runs on a worker interpreter of its
+// own, so only its closure and the globals are shared with other tasks.
+class LoxTask {
+  private final Interpreter worker;
+  private final LoxCallable function;
+  private final CompletableFuture<Object> result;
+  private boolean absorbed = false;
+  // The thread running the task, while it runs, so cancel() can wake it
+  // from a blocking receive() or send().
+  private Thread thread = null;
+
+  LoxTask(Interpreter parent, LoxCallable function) {
+    worker = parent.worker();
+    this.function = function;
+    result = CompletableFuture.supplyAsync(this::run, Tasks.executor());
+    parent.taskGroup.add(this);
+  }
+
+  private Object run() {
+    synchronized (this) {
+      thread = Thread.currentThread();
+    }
+    try {
+      return worker.runTask(function);
+    } finally {
+      // Pool threads go on to run other tasks, which mustn't see an
+      // interrupt meant for this one.
+      synchronized (this) {
+        thread = null;
+        Thread.interrupted();
+      }
+    }
+  }
+
+  // Waits for the task to finish and returns what its function returned.
+  // The first interpreter to join it is charged for the work it did.
+  Object join(Interpreter interpreter) {
+    Object value = result.join();
+    absorbInto(interpreter);
+    return value;
+  }
+
+  // Charges interpreter for the finished task's work, unless someone
+  // already has been.
+  synchronized void absorbInto(Interpreter interpreter) {
+    if (absorbed) return;
+    absorbed = true;
+    interpreter.absorb(Collections.singletonList(worker));
+  }
+
+  boolean isDone() {
+    return result.isDone();
+  }
+
+  // Interrupts the task if it's running. Its group is already marked
+  // cancelled, which is what stops it at its next step.
+  synchronized void cancel() {
+    if (thread != null) thread.interrupt();
+  }
+
+  // Waits up to timeoutNanos for the task to finish. Returns whether it
+  // did.
+  boolean await(long timeoutNanos) {
+    try {
+      result.get(Math.max(timeoutNanos, 0), TimeUnit.NANOSECONDS);
+      return true;
+    } catch (ExecutionException error) {
+      return true;
+    } catch (TimeoutException error) {
+      return false;
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return result.isDone() ? "<task done>" : "<task>";
+  }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by natives, which don't know which call they're running for.
+// The interpreter turns it into a RuntimeError at the call site.
+class NativeError extends RuntimeException {
+  NativeError(String message) {
+    super(message);
+  }
+}
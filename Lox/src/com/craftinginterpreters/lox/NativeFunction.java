@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function implemented in Java. Natives override the call method for
+// their arity, and the interpreter calls that directly without putting
+// the arguments in a list first.
+abstract class NativeFunction implements LoxCallable {
+  private final int arity;
+
+  NativeFunction(int arity) {
+    this.arity = arity;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    switch (arity) {
+      case 0: return call0(interpreter);
+      case 1: return call1(interpreter, arguments.get(0));
+      case 2: return call2(interpreter, arguments.get(0), arguments.get(1));
+      case 3:
+        return call3(interpreter, arguments.get(0), arguments.get(1),
+            arguments.get(2));
+    }
+
+    throw new AssertionError(
+        "Natives with more than three parameters must override call().");
+  }
+
+  Object call0(Interpreter interpreter) {
+    throw new AssertionError("Wrong arity.");
+  }
+
+  Object call1(Interpreter interpreter, Object a) {
+    throw new AssertionError("Wrong arity.");
+  }
+
+  Object call2(Interpreter interpreter, Object a, Object b) {
+    throw new AssertionError("Wrong arity.");
+  }
+
+  Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    throw new AssertionError("Wrong arity.");
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
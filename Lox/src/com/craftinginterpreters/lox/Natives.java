@@ -0,0 +1,357 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The built-in functions other than clock(). They take containers as
+// their first argument, since Lox can't call methods on native objects.
+final class Natives {
+  private Natives() {}
+
+  static void define(Environment globals) {
+    globals.define("list", new NativeFunction(0) {
+      @Override
+      Object call0(Interpreter interpreter) {
+        return new LoxList();
+      }
+    });
+
+    globals.define("push", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object list, Object value) {
+        LoxList items = checkList(list);
+        interpreter.chargeNative(AllocationStats.LIST_SLOT_BYTES);
+        items.add(value);
+        return null;
+      }
+    });
+
+    globals.define("pop", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object list) {
+        LoxList items = checkList(list);
+        if (items.size() == 0) {
+          throw new NativeError("Can't pop from an empty list.");
+        }
+        return items.removeLast();
+      }
+    });
+
+    globals.define("map", new NativeFunction(0) {
+      @Override
+      Object call0(Interpreter interpreter) {
+        return new LoxMap();
+      }
+    });
+
+    globals.define("buffer", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object size) {
+        int count = checkBound(size, LoxBuffer.MAX_SIZE);
+        interpreter.chargeNative((long)count * Double.BYTES);
+        try {
+          return new LoxBuffer(count);
+        } catch (OutOfMemoryError error) {
+          throw new NativeError("Not enough memory for the buffer.");
+        }
+      }
+    });
+
+    globals.define("fill", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object buffer, Object value) {
+        checkBuffer(buffer).fill(checkNumber(value));
+        return null;
+      }
+    });
+
+    globals.define("sum", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object buffer) {
+        return checkBuffer(buffer).sum();
+      }
+    });
+
+    // Replaces each element with what function returns for it.
+    globals.define("transform", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object buffer,
+                   Object function) {
+        LoxBuffer numbers = checkBuffer(buffer);
+        LoxCallable callable = checkFunction(function, 1);
+        // LoxFunction copies its arguments out, so one list does for
+        // every call.
+        List<Object> arguments = new ArrayList<>(1);
+        arguments.add(null);
+        for (int i = 0; i < numbers.size(); i++) {
+          arguments.set(0, numbers.get(i));
+          numbers.set(i, checkNumber(callable.call(interpreter, arguments)));
+        }
+        return null;
+      }
+    });
+
+    globals.define("slice", new NativeFunction(3) {
+      @Override
+      Object call3(Interpreter interpreter, Object buffer, Object start,
+                   Object end) {
+        LoxBuffer numbers = checkBuffer(buffer);
+        int from = checkBound(start, numbers.size());
+        int to = checkBound(end, numbers.size());
+        if (from > to) throw new NativeError("Slice start is after end.");
+        return numbers.slice(from, to);
+      }
+    });
+
+    // Returns nil for a key a map doesn't have.
+    globals.define("get", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object container,
+                   Object key) {
+        if (container instanceof LoxMap) {
+          return ((LoxMap)container).get(key);
+        }
+        if (container instanceof LoxBuffer) {
+          LoxBuffer numbers = (LoxBuffer)container;
+          return numbers.get(checkIndex(key, numbers.size()));
+        }
+
+        LoxList items = checkList(container);
+        return items.get(checkIndex(key, items.size()));
+      }
+    });
+
+    globals.define("set", new NativeFunction(3) {
+      @Override
+      Object call3(Interpreter interpreter, Object container, Object key,
+                   Object value) {
+        if (container instanceof LoxMap) {
+          LoxMap entries = (LoxMap)container;
+          int size = entries.size();
+          entries.put(key, value);
+          if (entries.size() > size) {
+            interpreter.chargeNative(AllocationStats.MAP_ENTRY_BYTES);
+          }
+          return value;
+        }
+        if (container instanceof LoxBuffer) {
+          LoxBuffer numbers = (LoxBuffer)container;
+          numbers.set(checkIndex(key, numbers.size()), checkNumber(value));
+          return value;
+        }
+
+        LoxList items = checkList(container);
+        items.set(checkIndex(key, items.size()), value);
+        return value;
+      }
+    });
+
+    globals.define("has", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object map, Object key) {
+        return checkMap(map).containsKey(key);
+      }
+    });
+
+    // Returns the value that was removed, or nil.
+    globals.define("remove", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object map, Object key) {
+        return checkMap(map).remove(key);
+      }
+    });
+
+    globals.define("keys", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object map) {
+        LoxMap entries = checkMap(map);
+        interpreter.chargeNative(
+            entries.size() * AllocationStats.LIST_SLOT_BYTES);
+        LoxList keys = new LoxList();
+        for (int slot = entries.first(); slot != -1;
+             slot = entries.next(slot)) {
+          keys.add(entries.keyAt(slot));
+        }
+        return keys;
+      }
+    });
+
+    globals.define("len", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object value) {
+        if (value instanceof LoxList) {
+          return (double)((LoxList)value).size();
+        }
+        if (value instanceof LoxMap) {
+          return (double)((LoxMap)value).size();
+        }
+        if (value instanceof LoxBuffer) {
+          return (double)((LoxBuffer)value).size();
+        }
+        if (value instanceof String) {
+          return (double)((String)value).length();
+        }
+        throw new NativeError(
+            "Can only get the length of a list, map, buffer or string.");
+      }
+    });
+  }
+
+  // File natives read the local filesystem, so they're only defined for
+  // runtimes that allow it. See LoxRuntime.allowFileAccess().
+  static void defineFileAccess(Environment globals) {
+    globals.define("open", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object path) {
+        if (!(path instanceof String)) {
+          throw new NativeError("Path must be a string.");
+        }
+
+        try {
+          return new LoxFile(Paths.get((String)path));
+        } catch (IOException | RuntimeException error) {
+          throw new NativeError("Can't open '" + path + "'.");
+        }
+      }
+    });
+
+    // Moves to the next line without copying it. Returns false at the
+    // end of the file.
+    globals.define("nextLine", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object file) {
+        try {
+          return checkFile(file).nextLine();
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+
+    // The text of the current line.
+    globals.define("line", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object file) {
+        try {
+          return checkFile(file).line(interpreter);
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+
+    globals.define("lineContains", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object file, Object text) {
+        if (!(text instanceof String)) {
+          throw new NativeError("Expected a string.");
+        }
+
+        try {
+          return checkFile(file).lineContains((String)text);
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+
+    // nextLine() and line() together. Returns nil at the end of the file.
+    globals.define("readLine", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object file) {
+        LoxFile input = checkFile(file);
+        try {
+          if (!input.nextLine()) return null;
+          return input.line(interpreter);
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+
+    // Returns up to the given number of bytes as a string, or nil at
+    // the end of the file.
+    globals.define("readChunk", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object file, Object bytes) {
+        LoxFile input = checkFile(file);
+        int length = checkBound(bytes, Integer.MAX_VALUE);
+
+        try {
+          return input.readChunk(interpreter, length);
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+
+    globals.define("close", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object file) {
+        try {
+          checkFile(file).close();
+          return null;
+        } catch (IOException error) {
+          throw new NativeError(error.getMessage());
+        }
+      }
+    });
+  }
+
+  static LoxFile checkFile(Object value) {
+    if (value instanceof LoxFile) return (LoxFile)value;
+    throw new NativeError("Expected a file.");
+  }
+
+  static LoxList checkList(Object value) {
+    if (value instanceof LoxList) return (LoxList)value;
+    throw new NativeError("Expected a list.");
+  }
+
+  static LoxMap checkMap(Object value) {
+    if (value instanceof LoxMap) return (LoxMap)value;
+    throw new NativeError("Expected a map.");
+  }
+
+  static LoxBuffer checkBuffer(Object value) {
+    if (value instanceof LoxBuffer) return (LoxBuffer)value;
+    throw new NativeError("Expected a buffer.");
+  }
+
+  static double checkNumber(Object value) {
+    if (value instanceof Double) return (double)value;
+    throw new NativeError("Expected a number.");
+  }
+
+  static LoxCallable checkFunction(Object value, int arity) {
+    if (value instanceof LoxCallable &&
+        ((LoxCallable)value).arity() == arity) {
+      return (LoxCallable)value;
+    }
+    throw new NativeError("Expected a function that takes " + arity +
+        (arity == 1 ? " argument." : " arguments."));
+  }
+
+  static int checkIndex(Object index, int size) {
+    return checkInteger(index, size - 1, "Index out of bounds.");
+  }
+
+  // Like checkIndex(), but allows the end, for sizes and slice bounds.
+  static int checkBound(Object bound, int size) {
+    return checkInteger(bound, size, "Bound out of range.");
+  }
+
+  private static int checkInteger(Object number, int max, String message) {
+    if (!(number instanceof Double)) {
+      throw new NativeError("Index must be a number.");
+    }
+
+    double value = (double)number;
+    if (value != Math.floor(value) || value < 0 || value > max) {
+      throw new NativeError(message);
+    }
+    return (int)value;
+  }
+}
@@ -0,0 +1,191 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Natives that split work over a list across the common fork-join pool.
+// Each range of the list runs on a worker interpreter of its own, so
+// calls on different threads don't share a current scope. They do share
+// globals and whatever their closures captured, so the function must
+// not assign to variables outside itself.
+final class Parallel {
+  private Parallel() {}
+
+  // Ranges are small enough that every thread gets a few, which evens
+  // out elements that take different amounts of time.
+  private static final int RANGES_PER_THREAD = 4;
+
+  static void define(Environment globals) {
+    // Returns a new list of function(element) for each element.
+    globals.define("parallelMap", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object list, Object function) {
+        LoxList input = Natives.checkList(list);
+        LoxCallable callable = Natives.checkFunction(function, 1);
+        interpreter.chargeNative(
+            input.size() * AllocationStats.LIST_SLOT_BYTES);
+
+        Object[] output = new Object[input.size()];
+        Queue<Interpreter> workers = new ConcurrentLinkedQueue<>();
+        try {
+          new MapTask(interpreter, workers, callable, input, output, 0,
+              input.size(), grain(input.size())).invoke();
+        } finally {
+          interpreter.absorb(workers);
+        }
+
+        LoxList result = new LoxList();
+        for (Object value : output) {
+          result.add(value);
+        }
+        return result;
+      }
+    });
+
+    // Combines the elements with function, starting from initial. The
+    // elements are grouped in no particular way, so function must be
+    // associative.
+    globals.define("parallelReduce", new NativeFunction(3) {
+      @Override
+      Object call3(Interpreter interpreter, Object list, Object function,
+                   Object initial) {
+        LoxList input = Natives.checkList(list);
+        LoxCallable callable = Natives.checkFunction(function, 2);
+        if (input.size() == 0) return initial;
+
+        Queue<Interpreter> workers = new ConcurrentLinkedQueue<>();
+        Object total;
+        try {
+          total = new ReduceTask(interpreter, workers, callable, input, 0,
+              input.size(), grain(input.size())).invoke();
+        } finally {
+          interpreter.absorb(workers);
+        }
+        return apply(interpreter, callable, initial, total);
+      }
+    });
+  }
+
+  private static int grain(int size) {
+    int ranges = ForkJoinPool.getCommonPoolParallelism() *
+        RANGES_PER_THREAD;
+    return Math.max(1, size / ranges);
+  }
+
+  private static final class MapTask extends RecursiveAction {
+    private final Interpreter parent;
+    private final Queue<Interpreter> workers;
+    private final LoxCallable function;
+    private final LoxList input;
+    private final Object[] output;
+    private final int start;
+    private final int end;
+    private final int grain;
+
+    MapTask(Interpreter parent, Queue<Interpreter> workers,
+            LoxCallable function, LoxList input, Object[] output,
+            int start, int end, int grain) {
+      this.parent = parent;
+      this.workers = workers;
+      this.function = function;
+      this.input = input;
+      this.output = output;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= grain) {
+        Interpreter worker = parent.worker();
+        workers.add(worker);
+        worker.runOnThisThread(() -> {
+          for (int i = start; i < end; i++) {
+            output[i] = apply(worker, function, input.get(i));
+          }
+        });
+        return;
+      }
+
+      int middle = (start + end) >>> 1;
+      invokeAll(
+          new MapTask(parent, workers, function, input, output,
+              start, middle, grain),
+          new MapTask(parent, workers, function, input, output,
+              middle, end, grain));
+    }
+  }
+
+  private static final class ReduceTask extends RecursiveTask<Object> {
+    private final Interpreter parent;
+    private final Queue<Interpreter> workers;
+    private final LoxCallable function;
+    private final LoxList input;
+    private final int start;
+    private final int end;
+    private final int grain;
+
+    ReduceTask(Interpreter parent, Queue<Interpreter> workers,
+               LoxCallable function, LoxList input, int start, int end,
+               int grain) {
+      this.parent = parent;
+      this.workers = workers;
+      this.function = function;
+      this.input = input;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    @Override
+    protected Object compute() {
+      Interpreter worker = parent.worker();
+      workers.add(worker);
+      Object[] result = new Object[1];
+
+      if (end - start <= grain) {
+        worker.runOnThisThread(() -> {
+          Object total = input.get(start);
+          for (int i = start + 1; i < end; i++) {
+            total = apply(worker, function, total, input.get(i));
+          }
+          result[0] = total;
+        });
+        return result[0];
+      }
+
+      int middle = (start + end) >>> 1;
+      ReduceTask left = new ReduceTask(parent, workers, function, input,
+          start, middle, grain);
+      ReduceTask right = new ReduceTask(parent, workers, function, input,
+          middle, end, grain);
+      left.fork();
+      Object rightTotal = right.compute();
+      Object leftTotal = left.join();
+      worker.runOnThisThread(() ->
+          result[0] = apply(worker, function, leftTotal, rightTotal));
+      return result[0];
+    }
+  }
+
+  private static Object apply(Interpreter interpreter,
+                              LoxCallable function, Object argument) {
+    if (function instanceof NativeFunction) {
+      return ((NativeFunction)function).call1(interpreter, argument);
+    }
+    return function.call(interpreter, Arrays.asList(argument));
+  }
+
+  private static Object apply(Interpreter interpreter,
+                              LoxCallable function, Object a, Object b) {
+    if (function instanceof NativeFunction) {
+      return ((NativeFunction)function).call2(interpreter, a, b);
+    }
+    return function.call(interpreter, Arrays.asList(a, b));
+  }
+}
@@ -7,7 +7,10 @@ import java.util.ArrayList;
 //> Control Flow import-arrays
 import java.util.Arrays;
 //< Control Flow import-arrays
+import java.io.Writer;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
@@ -17,10 +20,12 @@ class Parser {
 
 //< parse-error
   private final List<Token> tokens;
+  private final ErrorReporter reporter;
   private int current = 0;
 
-  Parser(List<Token> tokens) {
+  Parser(List<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
 
 //  Expr parse() {
@@ -40,6 +45,109 @@ class Parser {
     return statements; 
   }
 //< Statements and State parse
+//> parse-parallel
+  // Top-level fun and class declarations are self-contained, so the
+  // token list can be cut at their boundaries and each piece parsed on
+  // its own. If any piece fails, the whole list is parsed again
+  // sequentially so errors are reported exactly as parse() would.
+  List<Stmt> parseParallel(ForkJoinPool pool) {
+    List<Integer> bounds = splitDeclarations(tokens);
+    if (bounds == null || bounds.size() <= 2) return parse();
+
+    List<List<Stmt>> chunks =
+        pool.invoke(new ChunkTask(tokens, bounds, 0, bounds.size() - 1));
+    if (chunks == null) return parse();
+
+    List<Stmt> statements = new ArrayList<>();
+    for (List<Stmt> chunk : chunks) {
+      statements.addAll(chunk);
+    }
+    return statements;
+  }
+
+  // Returns the start index of every chunk followed by the index of the
+  // EOF token, or null if the braces don't balance.
+  private static List<Integer> splitDeclarations(List<Token> tokens) {
+    List<Integer> bounds = new ArrayList<>();
+    bounds.add(0);
+
+    int depth = 0;
+    int last = tokens.size() - 1;
+    for (int i = 0; i < last; i++) {
+      switch (tokens.get(i).type) {
+        case LEFT_BRACE:
+          depth++;
+          break;
+        case RIGHT_BRACE:
+          if (--depth < 0) return null;
+          break;
+        case CLASS:
+        case FUN:
+          if (depth == 0 && i != bounds.get(bounds.size() - 1)) {
+            bounds.add(i);
+          }
+          break;
+      }
+    }
+
+    if (depth != 0) return null;
+    bounds.add(last);
+    return bounds;
+  }
+
+  private static class ChunkTask extends RecursiveTask<List<List<Stmt>>> {
+    private static final int THRESHOLD = 512;
+
+    private final List<Token> tokens;
+    private final List<Integer> bounds;
+    private final int from;
+    private final int to;
+
+    ChunkTask(List<Token> tokens, List<Integer> bounds, int from, int to) {
+      this.tokens = tokens;
+      this.bounds = bounds;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<List<Stmt>> compute() {
+      int start = bounds.get(from);
+      int end = bounds.get(to);
+      if (to - from == 1 || end - start <= THRESHOLD) {
+        return parseChunk(start, end);
+      }
+
+      int middle = (from + to) >>> 1;
+      ChunkTask left = new ChunkTask(tokens, bounds, from, middle);
+      ChunkTask right = new ChunkTask(tokens, bounds, middle, to);
+      left.fork();
+      List<List<Stmt>> rightChunks = right.compute();
+      List<List<Stmt>> leftChunks = left.join();
+      if (leftChunks == null || rightChunks == null) return null;
+
+      leftChunks.addAll(rightChunks);
+      return leftChunks;
+    }
+
+    private List<List<Stmt>> parseChunk(int start, int end) {
+      List<Token> chunk = new ArrayList<>(end - start + 1);
+      chunk.addAll(tokens.subList(start, end));
+      Token next = tokens.get(end);
+      chunk.add(new Token(EOF, "", null, next.line));
+
+      // Errors are thrown away here and reported by the sequential
+      // parse that follows a failure.
+      ErrorReporter reporter = new ErrorReporter(Writer.nullWriter());
+      List<Stmt> statements = new Parser(chunk, reporter).parse();
+      if (reporter.hadError) return null;
+
+      List<List<Stmt>> chunks = new ArrayList<>();
+      chunks.add(statements);
+      return chunks;
+    }
+  }
+//< parse-parallel
 //> expression
   private Expr expression() {
 /* Parsing Expressions expression < Statements and State expression
@@ -52,14 +160,15 @@ class Parser {
 //< expression
 //> Statements and State declaration
   private Stmt declaration() {
+    int line = peek().line;
     try {
 //> Classes match-class
-      if (match(CLASS)) return classDeclaration();
+      if (match(CLASS)) return startingAt(line, classDeclaration());
 //< Classes match-class
 //> Functions match-fun
       if (match(FUN)) return function("function");
 //< Functions match-fun
-      if (match(VAR)) return varDeclaration();
+      if (match(VAR)) return startingAt(line, varDeclaration());
 
       return statement();
     } catch (ParseError error) {
@@ -99,28 +208,36 @@ class Parser {
 //< Classes parse-class-declaration
 //> Statements and State parse-statement
   private Stmt statement() {
+    int line = peek().line;
 //> Control Flow match-for
-    if (match(FOR)) return forStatement();
+    if (match(FOR)) return startingAt(line, forStatement());
 //< Control Flow match-for
 //> Control Flow match-if
-    if (match(IF)) return ifStatement();
+    if (match(IF)) return startingAt(line, ifStatement());
 //< Control Flow match-if
-    if (match(PRINT)) return printStatement();
+    if (match(PRINT)) return startingAt(line, printStatement());
 //> Functions match-return
-    if (match(RETURN)) return returnStatement();
+    if (match(RETURN)) return startingAt(line, returnStatement());
 //< Functions match-return
 //> Control Flow match-while
-    if (match(WHILE)) return whileStatement();
+    if (match(WHILE)) return startingAt(line, whileStatement());
 //< Control Flow match-while
 //> parse-block
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
+    if (match(LEFT_BRACE)) return startingAt(line, new Stmt.Block(block()));
 //< parse-block
 
-    return expressionStatement();
+    return startingAt(line, expressionStatement());
+  }
+
+  // Records the line a statement starts on, for the execution counters.
+  private <T extends Stmt> T startingAt(int line, T stmt) {
+    stmt.line = line;
+    return stmt;
   }
 //< Statements and State parse-statement
 //> Control Flow for-statement
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
 /* Control Flow for-statement < Control Flow for-initializer
@@ -131,9 +248,9 @@ class Parser {
     if (match(SEMICOLON)) {
       initializer = null;
     } else if (match(VAR)) {
-      initializer = varDeclaration();
+      initializer = startingAt(keyword.line, varDeclaration());
     } else {
-      initializer = expressionStatement();
+      initializer = startingAt(keyword.line, expressionStatement());
     }
 //< for-initializer
 //> for-condition
@@ -157,16 +274,17 @@ class Parser {
 
 //> for-desugar-increment
     if (increment != null) {
-      body = new Stmt.Block(
+      body = startingAt(keyword.line, new Stmt.Block(
           Arrays.asList(
               body,
-              new Stmt.Expression(increment)));
+              startingAt(keyword.line, new Stmt.Expression(increment)))));
     }
 
 //< for-desugar-increment
 //> for-desugar-condition
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = startingAt(keyword.line,
+        new Stmt.While(keyword, condition, body));
 
 //< for-desugar-condition
 //> for-desugar-initializer
@@ -228,12 +346,13 @@ class Parser {
 //< Statements and State parse-var-declaration
 //> Control Flow while-statement
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
     Stmt body = statement();
 
-    return new Stmt.While(condition, body);
+    return new Stmt.While(keyword, condition, body);
   }
 //< Control Flow while-statement
 //> Statements and State parse-expression-statement
@@ -265,7 +384,8 @@ class Parser {
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
     List<Stmt> body = block();
-    return new Stmt.Function(name, parameters, body);
+    return startingAt(name.line,
+        new Stmt.Function(name, parameters, body));
 //< parse-body
   }
 //< Functions parse-function
@@ -530,7 +650,7 @@ class Parser {
 //< utils
 //> error
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
 //< error
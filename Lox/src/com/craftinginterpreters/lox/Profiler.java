@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Samples a CallStack on a background thread and counts how often each
+// distinct stack shows up. The output is the collapsed-stack format that
+// flame graph tools read: one "frame;frame;frame count" line per stack.
+class Profiler {
+  private final CallStack stack;
+  private final long intervalNanos;
+  private final Map<String, Long> samples = new HashMap<>();
+  private final Thread sampler;
+  private volatile boolean running = true;
+
+  Profiler(CallStack stack, long intervalMicros) {
+    this.stack = stack;
+    this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+    sampler = new Thread(this::sample, "lox-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  private void sample() {
+    while (running) {
+      LockSupport.parkNanos(intervalNanos);
+      samples.merge(stack.collapse(), 1L, Long::sum);
+    }
+  }
+
+  // Stops sampling. The samples can be written once this returns.
+  void stop() {
+    running = false;
+    try {
+      sampler.join();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Whether some Lox code ran on parallelMap(), parallelReduce() or
+  // spawn() workers, which aren't sampled.
+  boolean missedWorkers() {
+    return stack.missedWorkers;
+  }
+
+  // Writes the stacks, most sampled first.
+  void writeCollapsed(Writer writer) {
+    List<Map.Entry<String, Long>> entries =
+        new ArrayList<>(samples.entrySet());
+    entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+    PrintWriter out = new PrintWriter(writer);
+    for (Map.Entry<String, Long> entry : entries) {
+      out.println(entry.getKey() + " " + entry.getValue());
+    }
+    out.flush();
+  }
+}
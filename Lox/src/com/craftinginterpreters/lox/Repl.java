@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+// The interactive prompt. Every input runs in the same LoxRuntime, so
+// globals, and the function declarations closures point into, carry
+// over from one input to the next. An input that stops partway
+// through, like an open block or string, continues on the next line
+// until it's finished. An empty continuation line gives up on it and
+// reports the errors.
+class Repl {
+  private final LoxRuntime runtime;
+  private final BufferedReader in;
+  private final PrintStream out;
+  private boolean timings = false;
+
+  Repl(LoxRuntime runtime, BufferedReader in, PrintStream out) {
+    this.runtime = runtime;
+    this.in = in;
+    this.out = out;
+  }
+
+  // Prints how long each input took to parse and run after it.
+  void setTimings(boolean timings) {
+    this.timings = timings;
+  }
+
+  void run() throws IOException {
+    StringBuilder input = new StringBuilder();
+    for (;;) {
+      out.print(input.length() == 0 ? "> " : "... ");
+      String line = in.readLine();
+      if (line == null) {
+        if (input.length() > 0) runtime.parse(input.toString());
+        break;
+      }
+
+      if (input.length() > 0 && line.isEmpty()) {
+        // Give up on the unfinished input.
+        runtime.parse(input.toString());
+        input.setLength(0);
+        runtime.flush();
+        runtime.clearErrors();
+        continue;
+      }
+
+      input.append(line).append('\n');
+      long start = System.nanoTime();
+      List<Stmt> statements = runtime.parseIfFinished(input.toString());
+      if (statements == null) continue;
+
+      long parsed = System.nanoTime();
+      input.setLength(0);
+      if (!runtime.hadError()) runtime.execute(statements, false);
+      long finished = System.nanoTime();
+
+      runtime.flush();
+      runtime.clearErrors();
+      if (timings) {
+        out.printf("[parse %.3f ms, run %.3f ms]%n",
+            (parsed - start) / 1e6, (finished - parsed) / 1e6);
+      }
+    }
+    runtime.flush();
+  }
+}
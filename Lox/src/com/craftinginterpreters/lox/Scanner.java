@@ -33,6 +33,7 @@ public class Scanner {
   }
 //< keyword-map
   private final String source;
+  private final ErrorReporter reporter;
   private final List<Token> tokens = new ArrayList<>();
 //> scan-state
   private int start = 0;
@@ -40,8 +41,9 @@ public class Scanner {
   private int line = 1;
 //< scan-state
 
-  Scanner(String source) {
+  Scanner(String source, ErrorReporter reporter) {
     this.source = source;
+    this.reporter = reporter;
   }
 //> scan-tokens
   List<Token> scanTokens() {
@@ -123,7 +125,7 @@ public class Scanner {
           identifier();
 //< identifier-start
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
 //< digit-start
         break;
@@ -170,7 +172,7 @@ public class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      reporter.errorAtEnd(line, "Unterminated string.");
       return;
     }
 
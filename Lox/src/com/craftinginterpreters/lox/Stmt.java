@@ -16,10 +16,30 @@ abstract class Stmt {
     R visitWhileStmt(While stmt);
   }
 
+  static final int BLOCK = 0;
+  static final int CLASS = 1;
+  static final int EXPRESSION = 2;
+  static final int FUNCTION = 3;
+  static final int IF = 4;
+  static final int PRINT = 5;
+  static final int RETURN = 6;
+  static final int VAR = 7;
+  static final int WHILE = 8;
+
+  final int kind;
+
+  Stmt(int kind) {
+    this.kind = kind;
+  }
+
+  int line;
+  long executions;
+
   // Nested Stmt classes here...
 //> stmt-block
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
+      super(BLOCK);
       this.statements = statements;
     }
 
@@ -32,10 +52,11 @@ abstract class Stmt {
   }
 //< stmt-block
 //> stmt-class
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
     Class(Token name,
           Expr.Variable superclass,
           List<Stmt.Function> methods) {
+      super(CLASS);
       this.name = name;
       this.superclass = superclass;
       this.methods = methods;
@@ -52,8 +73,9 @@ abstract class Stmt {
   }
 //< stmt-class
 //> stmt-expression
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
+      super(EXPRESSION);
       this.expression = expression;
     }
 
@@ -66,8 +88,9 @@ abstract class Stmt {
   }
 //< stmt-expression
 //> stmt-function
-  static class Function extends Stmt {
+  static final class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
+      super(FUNCTION);
       this.name = name;
       this.params = params;
       this.body = body;
@@ -81,11 +104,16 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    long calls;
+    long totalNanos;
+    long selfNanos;
+    int active;
   }
 //< stmt-function
 //> stmt-if
-  static class If extends Stmt {
+  static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      super(IF);
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -102,8 +130,9 @@ abstract class Stmt {
   }
 //< stmt-if
 //> stmt-print
-  static class Print extends Stmt {
+  static final class Print extends Stmt {
     Print(Expr expression) {
+      super(PRINT);
       this.expression = expression;
     }
 
@@ -116,13 +145,14 @@ abstract class Stmt {
   }
 //< stmt-print
 //> stmt-return
-  static class Return extends Stmt{
+  static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
+      super(RETURN);
       this.keyword = keyword;
       this.value = value;
     }
 
-	@Override
+    @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
@@ -132,8 +162,9 @@ abstract class Stmt {
   }
 //< stmt-return
 //> stmt-var
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
+      super(VAR);
       this.name = name;
       this.initializer = initializer;
     }
@@ -148,8 +179,10 @@ abstract class Stmt {
   }
 //< stmt-var
 //> stmt-while
-  static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+  static final class While extends Stmt {
+    While(Token keyword, Expr condition, Stmt body) {
+      super(WHILE);
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -159,6 +192,7 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt body;
   }
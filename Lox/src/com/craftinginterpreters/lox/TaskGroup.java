@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// The tasks spawned in one runtime, by its interpreter or any of its
+// workers. Tasks run on their own threads, so nothing else stops them
+// from outliving the script that started them. A pooled runtime cancels
+// them before it's handed to the next script.
+class TaskGroup {
+  private final Queue<LoxTask> tasks = new ConcurrentLinkedQueue<>();
+  // Checked with the step budget, so only tasks running under limits
+  // stop partway through. Blocked tasks are interrupted either way.
+  volatile boolean cancelled = false;
+
+  void add(LoxTask task) {
+    tasks.add(task);
+  }
+
+  // Forgets tasks that have finished, so a long-lived runtime doesn't
+  // keep every task it ever spawned.
+  void prune() {
+    tasks.removeIf(LoxTask::isDone);
+  }
+
+  // Adds what finished tasks allocated to interpreter's counts, for the
+  // tasks nobody joined.
+  void absorbFinished(Interpreter interpreter) {
+    for (LoxTask task : tasks) {
+      if (task.isDone()) task.absorbInto(interpreter);
+    }
+  }
+
+  // Cancels every task and waits up to timeoutMillis for them to stop.
+  // Returns false if some are still running, in which case the group
+  // stays cancelled.
+  boolean cancel(long timeoutMillis) {
+    prune();
+    if (tasks.isEmpty()) return true;
+
+    cancelled = true;
+    for (LoxTask task : tasks) {
+      task.cancel();
+    }
+
+    // A task spawned by a task being waited on is added before its
+    // spawner finishes, so this loop still reaches it, and cancels it
+    // too since the first loop may have missed it.
+    long deadline = System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    for (LoxTask task : tasks) {
+      task.cancel();
+      if (!task.await(deadline - System.nanoTime())) return false;
+    }
+
+    tasks.clear();
+    cancelled = false;
+    return true;
+  }
+}
@@ -0,0 +1,111 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Natives for running Lox functions concurrently. Every spawned function
+// gets its own thread, virtual where the JVM has them, so a script can
+// start thousands of tasks that mostly wait on channels.
+//
+// A spawned function shares its closure, and so the globals, with the
+// task that spawned it. Environment makes shared scopes safe to read
+// and assign from any task, though a read followed by an assignment is
+// not atomic. Lists, maps and buffers aren't locked; hand them over a
+// channel instead of changing one from several tasks at once.
+final class Tasks {
+  private Tasks() {}
+
+  private static ExecutorService executor;
+
+  static void define(Environment globals) {
+    globals.define("spawn", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object function) {
+        LoxCallable callable = Natives.checkFunction(function, 0);
+        if (interpreter.taskGroup.cancelled) {
+          throw new NativeError("Tasks were cancelled.");
+        }
+        // Share before starting, so the new thread never sees the
+        // closure as unshared.
+        Environment.shareValue(callable);
+        return new LoxTask(interpreter, callable);
+      }
+    });
+
+    // Waits for a task and returns its function's result. A task that
+    // failed has already reported its error and returns nil.
+    globals.define("join", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object task) {
+        if (!(task instanceof LoxTask)) {
+          throw new NativeError("Expected a task.");
+        }
+        return ((LoxTask)task).join(interpreter);
+      }
+    });
+
+    globals.define("channel", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object capacity) {
+        int slots = Natives.checkBound(capacity, Integer.MAX_VALUE);
+        // A bounded queue allocates all its slots up front.
+        interpreter.chargeNative(slots * AllocationStats.LIST_SLOT_BYTES);
+        return new LoxChannel(slots);
+      }
+    });
+
+    globals.define("send", new NativeFunction(2) {
+      @Override
+      Object call2(Interpreter interpreter, Object channel, Object value) {
+        try {
+          checkChannel(channel).send(value);
+        } catch (InterruptedException error) {
+          Thread.currentThread().interrupt();
+          throw new NativeError("Interrupted while sending.");
+        }
+        return null;
+      }
+    });
+
+    globals.define("receive", new NativeFunction(1) {
+      @Override
+      Object call1(Interpreter interpreter, Object channel) {
+        try {
+          return checkChannel(channel).receive();
+        } catch (InterruptedException error) {
+          Thread.currentThread().interrupt();
+          throw new NativeError("Interrupted while receiving.");
+        }
+      }
+    });
+  }
+
+  private static LoxChannel checkChannel(Object value) {
+    if (value instanceof LoxChannel) return (LoxChannel)value;
+    throw new NativeError("Expected a channel.");
+  }
+
+  static synchronized ExecutorService executor() {
+    if (executor == null) executor = newThreadPerTaskExecutor();
+    return executor;
+  }
+
+  // Virtual threads arrived in Java 21 but the project still builds for
+  // Java 11, so look the factory up reflectively and fall back to
+  // platform threads on older JVMs. Those are daemons, like virtual
+  // threads, so a task that's never joined doesn't keep the JVM alive.
+  static ExecutorService newThreadPerTaskExecutor() {
+    try {
+      Method factory =
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)factory.invoke(null);
+    } catch (ReflectiveOperationException error) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+}
@@ -14,7 +14,7 @@ public class GenerateAst {
     }
     String outputDir = args[0];
 //> call-define-ast
-    defineAst(outputDir, "Expr", Arrays.asList(
+    List<String> exprTypes = Arrays.asList(
 //> Statements and State assign-expr
       "Assign   : Token name, Expr value",
 //< Statements and State assign-expr
@@ -46,10 +46,11 @@ public class GenerateAst {
       "Unary    : Token operator, Expr right",
       "Variable : Token name"
 //< Statements and State var-expr
-    ));
+    );
+    defineAst(outputDir, "Expr", exprTypes);
 //> Statements and State stmt-ast
 
-    defineAst(outputDir, "Stmt", Arrays.asList(
+    List<String> stmtTypes = Arrays.asList(
 //> block-ast
       "Block      : List<Stmt> statements",
 //< block-ast
@@ -63,7 +64,9 @@ public class GenerateAst {
       "Expression : Expr expression",
 //> Functions function-ast
       "Function   : Token name, List<Token> params," +
-                  " List<Stmt> body",
+                  " List<Stmt> body" +
+                  " | long calls, long totalNanos, long selfNanos," +
+                  " int active",
 //< Functions function-ast
 //> Control Flow if-ast
       "If         : Expr condition, Stmt thenBranch," +
@@ -83,11 +86,16 @@ public class GenerateAst {
 */
 //> Control Flow while-ast
       "Var        : Token name, Expr initializer",
-      "While      : Expr condition, Stmt body"
+      "While      : Token keyword, Expr condition, Stmt body"
 //< Control Flow while-ast
-    ));
+    );
+    defineAst(outputDir, "Stmt", stmtTypes);
 //< Statements and State stmt-ast
 //< call-define-ast
+//> call-define-codec
+
+    defineCodec(outputDir, exprTypes, stmtTypes);
+//< call-define-codec
   }
 //> define-ast
   private static void defineAst(
@@ -109,6 +117,10 @@ public class GenerateAst {
     defineVisitor(writer, baseName, types);
 
 //< call-define-visitor
+//> call-define-kinds
+    defineKinds(writer, baseName, types);
+
+//< call-define-kinds
 //> omit
     writer.println();
     writer.println("  // Nested " + baseName + " classes here...");
@@ -117,8 +129,8 @@ public class GenerateAst {
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim(); // [robust]
-      defineType(writer, baseName, className, fields);
+      String fields = fieldsOf(type); // [robust]
+      defineType(writer, baseName, className, fields, countersOf(type));
     }
 //< nested-classes
 //> base-accept-method
@@ -149,15 +161,55 @@ public class GenerateAst {
     writer.println("  }");
   }
 //< define-visitor
+//> define-kinds
+  // Every node carries a small int naming its class so hot code like the
+  // Interpreter can dispatch with a tableswitch instead of accept().
+  private static void defineKinds(
+      PrintWriter writer, String baseName, List<String> types) {
+    writer.println();
+    for (int i = 0; i < types.size(); i++) {
+      String typeName = types.get(i).split(":")[0].trim();
+      writer.println("  static final int " + typeName.toUpperCase() +
+          " = " + i + ";");
+    }
+
+    writer.println();
+    writer.println("  final int kind;");
+    writer.println();
+    writer.println("  " + baseName + "(int kind) {");
+    writer.println("    this.kind = kind;");
+    writer.println("  }");
+
+    // Statements remember where they start and how often they ran, so
+    // the counters can be reported by line without a side table.
+    if (baseName.equals("Stmt")) {
+      writer.println();
+      writer.println("  int line;");
+      writer.println("  long executions;");
+    }
+  }
+//< define-kinds
+//> fields-of
+  // A type spec is "Name : constructor fields", optionally followed by
+  // "| counters": mutable fields the interpreter updates as it runs.
+  private static String fieldsOf(String type) {
+    return type.split(":")[1].split("\\|")[0].trim();
+  }
+
+  private static String countersOf(String type) {
+    String[] parts = type.split("\\|");
+    return parts.length > 1 ? parts[1].trim() : null;
+  }
+//< fields-of
 //> define-type
   private static void defineType(
       PrintWriter writer, String baseName,
-      String className, String fieldList) {
+      String className, String fieldList, String counterList) {
 //> omit
     writer.println("//> " +
         baseName.toLowerCase() + "-" + className.toLowerCase());
 //< omit
-    writer.println("  static class " + className + " extends " +
+    writer.println("  static final class " + className + " extends " +
         baseName + " {");
 
 //> omit
@@ -174,6 +226,8 @@ public class GenerateAst {
 //> omit
     fieldList = fieldList.replace(",\n          ", ", ");
 //< omit
+    writer.println("      super(" + className.toUpperCase() + ");");
+
     // Store parameters in fields.
     String[] fields = fieldList.split(", ");
     for (String field : fields) {
@@ -198,6 +252,11 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    if (counterList != null) {
+      for (String counter : counterList.split(", ")) {
+        writer.println("    " + counter + ";");
+      }
+    }
 
     writer.println("  }");
 //> omit
@@ -206,6 +265,403 @@ public class GenerateAst {
 //< omit
   }
 //< define-type
+//> define-codec
+  // Writes AstCodec, which turns a list of statements into a compact
+  // binary form and back. Each node is a one-byte tag (its index in the
+  // type list, or -1 for null) followed by its fields in declaration
+  // order. Strings go through a table so repeated lexemes cost a varint.
+  private static void defineCodec(
+      String outputDir, List<String> exprTypes, List<String> stmtTypes)
+      throws IOException {
+    String path = outputDir + "/AstCodec.java";
+    PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+    writer.println("package com.craftinginterpreters.lox;");
+    writer.println();
+    writer.println("import java.io.DataInputStream;");
+    writer.println("import java.io.DataOutputStream;");
+    writer.println("import java.io.IOException;");
+    writer.println("import java.io.UncheckedIOException;");
+    writer.println("import java.nio.charset.StandardCharsets;");
+    writer.println("import java.util.ArrayList;");
+    writer.println("import java.util.HashMap;");
+    writer.println("import java.util.List;");
+    writer.println("import java.util.Map;");
+    writer.println();
+    writer.println("class AstCodec {");
+    writer.println("  static void write(DataOutputStream out, " +
+        "List<Stmt> statements)");
+    writer.println("      throws IOException {");
+    writer.println("    try {");
+    writer.println("      new Encoder(out).writeStmtList(statements);");
+    writer.println("    } catch (UncheckedIOException error) {");
+    writer.println("      throw error.getCause();");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  // in's available() must give the exact number of " +
+        "bytes left, as it");
+    writer.println("  // does for a stream over an array. Sizes are " +
+        "checked against it, so");
+    writer.println("  // corrupt input can't ask for a huge allocation.");
+    writer.println("  static List<Stmt> read(DataInputStream in) " +
+        "throws IOException {");
+    writer.println("    try {");
+    writer.println("      return new Decoder(in).readStmtList(Stmt.class);");
+    writer.println("    } catch (ClassCastException | " +
+        "IndexOutOfBoundsException |");
+    writer.println("             StackOverflowError error) {");
+    writer.println("      throw new IOException(\"Malformed AST.\", error);");
+    writer.println("    }");
+    writer.println("  }");
+
+    defineEncoder(writer, exprTypes, stmtTypes);
+    defineDecoder(writer, exprTypes, stmtTypes);
+
+    writer.println("}");
+    writer.close();
+  }
+
+  private static void defineEncoder(
+      PrintWriter writer, List<String> exprTypes, List<String> stmtTypes) {
+    writer.println();
+    writer.println("  private static class Encoder");
+    writer.println("      implements Expr.Visitor<Void>, " +
+        "Stmt.Visitor<Void> {");
+    writer.println("    private final DataOutputStream out;");
+    writer.println("    private final Map<String, Integer> strings = " +
+        "new HashMap<>();");
+    writer.println("    private int line = 0;");
+    writer.println();
+    writer.println("    Encoder(DataOutputStream out) {");
+    writer.println("      this.out = out;");
+    writer.println("    }");
+
+    for (String baseName : Arrays.asList("Expr", "Stmt")) {
+      writer.println();
+      writer.println("    void write" + baseName + "(" + baseName +
+          " node) {");
+      writer.println("      if (node == null) {");
+      writer.println("        writeByte(-1);");
+      writer.println("      } else {");
+      writer.println("        node.accept(this);");
+      writer.println("      }");
+      writer.println("    }");
+      writer.println();
+      writer.println("    void write" + baseName + "List(List<? extends " +
+          baseName + "> nodes) {");
+      writer.println("      writeVarint(nodes.size());");
+      writer.println("      for (" + baseName + " node : nodes) {");
+      writer.println("        write" + baseName + "(node);");
+      writer.println("      }");
+      writer.println("    }");
+    }
+
+    defineEncoderVisits(writer, "Expr", exprTypes);
+    defineEncoderVisits(writer, "Stmt", stmtTypes);
+
+    writer.println();
+    writer.println("    private void writeTokenList(List<Token> tokens) {");
+    writer.println("      writeVarint(tokens.size());");
+    writer.println("      for (Token token : tokens) {");
+    writer.println("        writeToken(token);");
+    writer.println("      }");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeToken(Token token) {");
+    writer.println("      if (token == null) {");
+    writer.println("        writeByte(-1);");
+    writer.println("        return;");
+    writer.println("      }");
+    writer.println();
+    writer.println("      writeByte(token.type.ordinal());");
+    writer.println("      writeString(token.lexeme);");
+    writer.println("      writeLiteral(token.literal);");
+    writer.println("      writeLine(token.line);");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeLine(int next) {");
+    writer.println("      // Lines only creep forward, so the delta nearly " +
+        "always fits a byte.");
+    writer.println("      int delta = next - line;");
+    writer.println("      writeVarint((delta << 1) ^ (delta >> 31));");
+    writer.println("      line = next;");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeLiteral(Object value) {");
+    writer.println("      try {");
+    writer.println("        if (value == null) {");
+    writer.println("          out.writeByte(0);");
+    writer.println("        } else if (value instanceof Boolean) {");
+    writer.println("          out.writeByte((Boolean)value ? 2 : 1);");
+    writer.println("        } else if (value instanceof Double) {");
+    writer.println("          out.writeByte(3);");
+    writer.println("          out.writeDouble((Double)value);");
+    writer.println("        } else {");
+    writer.println("          out.writeByte(4);");
+    writer.println("          writeString((String)value);");
+    writer.println("        }");
+    writer.println("      } catch (IOException error) {");
+    writer.println("        throw new UncheckedIOException(error);");
+    writer.println("      }");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeString(String string) {");
+    writer.println("      Integer index = strings.get(string);");
+    writer.println("      if (index != null) {");
+    writer.println("        writeVarint(index + 1);");
+    writer.println("        return;");
+    writer.println("      }");
+    writer.println();
+    writer.println("      strings.put(string, strings.size());");
+    writer.println("      byte[] bytes = " +
+        "string.getBytes(StandardCharsets.UTF_8);");
+    writer.println("      writeVarint(0);");
+    writer.println("      writeVarint(bytes.length);");
+    writer.println("      try {");
+    writer.println("        out.write(bytes);");
+    writer.println("      } catch (IOException error) {");
+    writer.println("        throw new UncheckedIOException(error);");
+    writer.println("      }");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeVarint(int value) {");
+    writer.println("      while ((value & ~0x7f) != 0) {");
+    writer.println("        writeByte((value & 0x7f) | 0x80);");
+    writer.println("        value >>>= 7;");
+    writer.println("      }");
+    writer.println("      writeByte(value);");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private void writeByte(int value) {");
+    writer.println("      try {");
+    writer.println("        out.writeByte(value);");
+    writer.println("      } catch (IOException error) {");
+    writer.println("        throw new UncheckedIOException(error);");
+    writer.println("      }");
+    writer.println("    }");
+    writer.println("  }");
+  }
+
+  private static void defineEncoderVisits(
+      PrintWriter writer, String baseName, List<String> types) {
+    for (int tag = 0; tag < types.size(); tag++) {
+      String type = types.get(tag);
+      String className = type.split(":")[0].trim();
+      String fieldList = fieldsOf(type);
+      String parameter = baseName.toLowerCase();
+
+      writer.println();
+      writer.println("    @Override");
+      writer.println("    public Void visit" + className + baseName + "(" +
+          baseName + "." + className + " " + parameter + ") {");
+      writer.println("      writeByte(" + tag + ");");
+      if (baseName.equals("Stmt")) {
+        writer.println("      writeLine(stmt.line);");
+      }
+      for (String field : fieldList.split(", ")) {
+        String fieldType = field.split(" ")[0];
+        String name = field.split(" ")[1];
+        writer.println("      write" + codecName(fieldType) + "(" +
+            parameter + "." + name + ");");
+      }
+      writer.println("      return null;");
+      writer.println("    }");
+    }
+  }
+
+  private static void defineDecoder(
+      PrintWriter writer, List<String> exprTypes, List<String> stmtTypes) {
+    writer.println();
+    writer.println("  private static class Decoder {");
+    writer.println("    private static final TokenType[] tokenTypes = " +
+        "TokenType.values();");
+    writer.println();
+    writer.println("    private final DataInputStream in;");
+    writer.println("    private final List<String> strings = " +
+        "new ArrayList<>();");
+    writer.println("    private int line = 0;");
+    writer.println();
+    writer.println("    Decoder(DataInputStream in) {");
+    writer.println("      this.in = in;");
+    writer.println("    }");
+
+    defineDecoderSwitch(writer, "Expr", exprTypes);
+    defineDecoderSwitch(writer, "Stmt", stmtTypes);
+
+    for (String baseName : Arrays.asList("Expr", "Stmt")) {
+      writer.println();
+      writer.println("    <T extends " + baseName + "> List<T> read" +
+          baseName + "List(Class<T> type)");
+      writer.println("        throws IOException {");
+      writer.println("      int size = readSize();");
+      writer.println("      List<T> nodes = new ArrayList<>(size);");
+      writer.println("      for (int i = 0; i < size; i++) {");
+      writer.println("        nodes.add(read" + baseName + "(type));");
+      writer.println("      }");
+      writer.println("      return nodes;");
+      writer.println("    }");
+    }
+
+    writer.println();
+    writer.println("    private List<Token> readTokenList() " +
+        "throws IOException {");
+    writer.println("      int size = readSize();");
+    writer.println("      List<Token> tokens = new ArrayList<>(size);");
+    writer.println("      for (int i = 0; i < size; i++) {");
+    writer.println("        tokens.add(readToken());");
+    writer.println("      }");
+    writer.println("      return tokens;");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private Token readToken() throws IOException {");
+    writer.println("      int type = in.readByte();");
+    writer.println("      if (type == -1) return null;");
+    writer.println();
+    writer.println("      String lexeme = readString();");
+    writer.println("      Object literal = readLiteral();");
+    writer.println("      return new Token(tokenTypes[type], lexeme, " +
+        "literal, readLine());");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private int readLine() throws IOException {");
+    writer.println("      int delta = readVarint();");
+    writer.println("      line += (delta >>> 1) ^ -(delta & 1);");
+    writer.println("      return line;");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private Object readLiteral() throws IOException {");
+    writer.println("      int kind = in.readByte();");
+    writer.println("      switch (kind) {");
+    writer.println("        case 0: return null;");
+    writer.println("        case 1: return false;");
+    writer.println("        case 2: return true;");
+    writer.println("        case 3: return in.readDouble();");
+    writer.println("        case 4: return readString();");
+    writer.println("      }");
+    writer.println();
+    writer.println("      throw new IOException(\"Unknown literal kind \" " +
+        "+ kind + \".\");");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private String readString() throws IOException {");
+    writer.println("      int index = readVarint();");
+    writer.println("      if (index != 0) return strings.get(index - 1);");
+    writer.println();
+    writer.println("      byte[] bytes = new byte[readSize()];");
+    writer.println("      in.readFully(bytes);");
+    writer.println("      String string = " +
+        "new String(bytes, StandardCharsets.UTF_8);");
+    writer.println("      strings.add(string);");
+    writer.println("      return string;");
+    writer.println("    }");
+    writer.println();
+    writer.println("    // Every element and every byte of a string " +
+        "takes at least a byte,");
+    writer.println("    // so a size bigger than what's left must be " +
+        "corrupt.");
+    writer.println("    private int readSize() throws IOException {");
+    writer.println("      int size = readVarint();");
+    writer.println("      if (size < 0 || size > in.available()) {");
+    writer.println("        throw new IOException(\"Malformed size \" " +
+        "+ size + \".\");");
+    writer.println("      }");
+    writer.println("      return size;");
+    writer.println("    }");
+    writer.println();
+    writer.println("    private int readVarint() throws IOException {");
+    writer.println("      int value = 0;");
+    writer.println("      for (int shift = 0; shift < 35; shift += 7) {");
+    writer.println("        int part = in.readUnsignedByte();");
+    writer.println("        value |= (part & 0x7f) << shift;");
+    writer.println("        if ((part & 0x80) == 0) return value;");
+    writer.println("      }");
+    writer.println();
+    writer.println("      throw new IOException(\"Malformed varint.\");");
+    writer.println("    }");
+    writer.println("  }");
+  }
+
+  private static void defineDecoderSwitch(
+      PrintWriter writer, String baseName, List<String> types) {
+    writer.println();
+    writer.println("    <T extends " + baseName + "> T read" + baseName +
+        "(Class<T> type) throws IOException {");
+    writer.println("      int tag = in.readByte();");
+    if (baseName.equals("Stmt")) {
+      // The statement's own line comes before its fields.
+      writer.println("      if (tag == -1) return null;");
+      writer.println();
+      writer.println("      int line = readLine();");
+      writer.println("      Stmt node;");
+      writer.println("      switch (tag) {");
+    } else {
+      writer.println("      switch (tag) {");
+      writer.println("        case -1: return null;");
+    }
+    for (int tag = 0; tag < types.size(); tag++) {
+      String type = types.get(tag);
+      String className = type.split(":")[0].trim();
+      String fieldList = fieldsOf(type);
+
+      boolean hasLine = baseName.equals("Stmt");
+      writer.println("        case " + tag + ":");
+      writer.println(hasLine
+          ? "          node = new " + baseName + "." + className + "("
+          : "          return type.cast(new " + baseName + "." +
+              className + "(");
+      String[] fields = fieldList.split(", ");
+      for (int i = 0; i < fields.length; i++) {
+        String fieldType = fields[i].split(" ")[0];
+        String end = hasLine ? ");" : "));";
+        writer.println("              " + readCall(fieldType) +
+            (i < fields.length - 1 ? "," : end));
+      }
+      if (hasLine) writer.println("          break;");
+    }
+    if (baseName.equals("Stmt")) {
+      writer.println("        default:");
+      writer.println("          throw new IOException(\"Unknown " +
+          baseName + " tag \" + tag + \".\");");
+      writer.println("      }");
+      writer.println();
+      writer.println("      node.line = line;");
+      writer.println("      return type.cast(node);");
+      writer.println("    }");
+      return;
+    }
+    writer.println("      }");
+    writer.println();
+    writer.println("      throw new IOException(\"Unknown " + baseName +
+        " tag \" + tag + \".\");");
+    writer.println("    }");
+  }
+
+  // Maps a field type like "List<Stmt.Function>" to the suffix of the
+  // codec method that handles it, e.g. "StmtList".
+  private static String codecName(String fieldType) {
+    String suffix = "";
+    if (fieldType.startsWith("List<")) {
+      fieldType = fieldType.substring(5, fieldType.length() - 1);
+      suffix = "List";
+    }
+
+    if (fieldType.equals("Object")) return "Literal" + suffix;
+    return fieldType.split("\\.")[0] + suffix;
+  }
+
+  private static String readCall(String fieldType) {
+    String name = codecName(fieldType);
+    if (name.startsWith("Expr") || name.startsWith("Stmt")) {
+      String nodeType = fieldType.startsWith("List<")
+          ? fieldType.substring(5, fieldType.length() - 1)
+          : fieldType;
+      return "read" + name + "(" + nodeType + ".class)";
+    }
+
+    return "read" + name + "()";
+  }
+//< define-codec
 //> pastry-visitor
   interface PastryVisitor {
     void visitBeignet(Beignet beignet); // [overload]